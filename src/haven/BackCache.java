@@ -81,6 +81,12 @@ public class BackCache<K, V> {
 	cache.put(key, val);
     }
 
+    /* Puts a value in the cache without storing it, for values that
+     * are stored later on. */
+    public void cache(K key, V val) {
+	cache.put(key, val);
+    }
+
     public void remove(K key) {
 	store.accept(key, null);
 	cache.remove(key);
@@ -67,6 +67,10 @@ public class Composited implements RenderTree.Node, EquipTarget {
 	    }
 	}
 
+	public boolean animating() {
+	    return(!stat || (ipold > 0));
+	}
+
 	private void rebuild() {
 	    pose.reset();
 	    for(PoseMod m : mods)
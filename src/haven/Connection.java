@@ -27,6 +27,7 @@
 package haven;
 
 import java.util.*;
+import java.util.concurrent.atomic.*;
 import java.io.*;
 import java.net.*;
 import java.nio.*;
@@ -39,6 +40,7 @@ public class Connection {
     public static final Config.Variable<Boolean> encrypt = Config.Variable.propb("haven.hcrypt", false);
     private static final double ACK_HOLD = 0.030;
     private static final double OBJACK_HOLD = 0.08, OBJACK_HOLD_MAX = 0.5;
+    private static final int OBJACK_MTU = 1000;
     public final SocketAddress server;
     private final Collection<Callback> cbs = new ArrayList<>();
     private final DatagramChannel sk;
@@ -48,6 +50,8 @@ public class Connection {
     private int tseq;
     private boolean alive = true;
     private Crypto crypt;
+    public final AckCtl ackctl = new AckCtl();
+    public final Stats stats = new Stats();
 
     public Connection(SocketAddress server) {
 	this.server = server;
@@ -69,6 +73,15 @@ public class Connection {
 	}
     }
 
+    /* Offline connection, fed from a recorded Callback.Dumper
+     * trace by replay() rather than from a server. */
+    public Connection() {
+	this.server = null;
+	this.sk = null;
+	this.sel = null;
+	this.key = null;
+    }
+
     public static interface Callback {
 	public default void closed() {};
 	public default void handle(PMessage msg) {};
@@ -86,7 +99,7 @@ public class Connection {
 
 	    private void printf(String format, Object... args) {
 		try {
-		    out.write(String.format(format, args));
+		    out.write(String.format(Locale.ROOT, format, args));
 		} catch(IOException e) {
 		    throw(new RuntimeException(e));
 		}
@@ -130,6 +143,27 @@ public class Connection {
 	return(this);
     }
 
+    private void cbmsg(PMessage msg) {
+	for(Iterator<Callback> i = cbs.iterator(); i.hasNext();) {
+	    Callback cb = i.next();
+	    cb.handle(i.hasNext() ? msg.clone() : msg);
+	}
+    }
+
+    private void cbdelta(OCache.ObjDelta delta) {
+	for(Iterator<Callback> i = cbs.iterator(); i.hasNext();) {
+	    Callback cb = i.next();
+	    cb.handle(i.hasNext() ? delta.clone() : delta);
+	}
+    }
+
+    private void cbmap(MessageBuf msg) {
+	for(Iterator<Callback> i = cbs.iterator(); i.hasNext();) {
+	    Callback cb = i.next();
+	    cb.mapdata(i.hasNext() ? msg.clone() : msg);
+	}
+    }
+
     public static class DecryptException extends Exception {
 	public DecryptException(String msg, Throwable cause) {super(msg, cause);}
 	public DecryptException(String msg) {super(msg);}
@@ -184,9 +218,11 @@ public class Connection {
 	    return(ret);
 	}
 
-	public synchronized byte[] decrypt(byte[] msg) throws DecryptException {
+	public synchronized byte[] decrypt(byte[] msg, int off, int len) throws DecryptException {
+	    if(len < 3)
+		throw(new DecryptException("truncated packet"));
 	    long mseq = rseqs.last();
-	    long loseq = (msg[0] & 0xff) | ((msg[1] & 0xff) << 8) | ((msg[2] & 0xff) << 16);
+	    long loseq = (msg[off] & 0xff) | ((msg[off + 1] & 0xff) << 8) | ((msg[off + 2] & 0xff) << 16);
 	    long seq = (mseq & ~0xffffffL) | loseq;
 	    if((Utils.sb(seq - mseq, 24) > 0) && (seq < mseq))
 		seq += 0x1000000L;
@@ -203,7 +239,7 @@ public class Connection {
 	    }
 	    byte[] ret;
 	    try {
-		ret = cipher.doFinal(msg, 3, msg.length - 3);
+		ret = cipher.doFinal(msg, off + 3, len - 3);
 	    } catch(IllegalBlockSizeException e) {
 		throw(new AssertionError(e));
 	    } catch(BadPaddingException e) {
@@ -226,7 +262,7 @@ public class Connection {
 	}
 
 	public PMessage decrypt(MessageBuf msg) throws DecryptException {
-	    byte[] dec = decrypt(msg.bytes());
+	    byte[] dec = decrypt(msg.rbuf, msg.rh, msg.rem());
 	    return(new PMessage(dec[0], dec, 1, dec.length - 1));
 	}
     }
@@ -254,8 +290,10 @@ public class Connection {
 			cb.closed();
 		} finally {
 		    try {
-			sk.close();
-			sel.close();
+			if(sk != null) {
+			    sk.close();
+			    sel.close();
+			}
 		    } catch(IOException e) {
 			throw(new RuntimeException(e));
 		    }
@@ -282,6 +320,9 @@ public class Connection {
     }
 
     private final ByteBuffer recvbuf = ByteBuffer.allocate(65536);
+    /* The returned message is a view into recvbuf, and so is only
+     * valid until the next call to recv(). Anything that needs to
+     * keep its contents around must copy them out. */
     private PMessage recv() throws IOException {
 	recvbuf.clear();
 	int ret = sk.read(recvbuf);
@@ -290,15 +331,13 @@ public class Connection {
 	} else if(ret == 0) {
 	    return(null);
 	} else {
-	    recvbuf.flip();
-	    byte type = recvbuf.get();
-	    byte[] buf = new byte[recvbuf.remaining()];
-	    recvbuf.get(buf);
-	    return(new PMessage(type, buf));
+	    return(new PMessage(recvbuf.get(0), recvbuf.array(), 1, ret - 1));
 	}
     }
 
     public void send(ByteBuffer msg) {
+	if(sk == null)
+	    return;
 	try {
 	    sk.write(msg);
 	} catch(IOException e) {
@@ -309,6 +348,7 @@ public class Connection {
     }
 
     public void send(PMessage msg) {
+	stats.tx(msg.type & 0xff, msg.size() + 1);
 	if((crypt != null) && (msg.type != Session.MSG_CRYPT))
 	    msg = crypt.encrypt(msg);
 	ByteBuffer buf = ByteBuffer.allocate(msg.size() + 1);
@@ -444,13 +484,150 @@ public class Connection {
 	}
     }
 
+    /* Sizes the object-ack hold windows from the measured round-trip
+     * time and the rate at which object data arrives. An object is
+     * considered quiet after a few interarrival times without updates
+     * rather than a fixed interval, and the hold from its first update
+     * is shortened by the round-trip time so that the ack still reaches
+     * the server before it decides to resend. */
+    public static class AckCtl {
+	public static final double MINHOLD = 0.02;
+	public final AtomicLong objackpkts = new AtomicLong(0), objacks = new AtomicLong(0), early = new AtomicLong(0);
+	public final AtomicLong rttsamples = new AtomicLong(0);
+	private volatile double srtt = -1, rttvar = 0, iat = OBJACK_HOLD;
+	private double lastobj = -1;
+
+	void rtt(double s) {
+	    if(srtt < 0) {
+		srtt = s;
+		rttvar = s / 2;
+	    } else {
+		rttvar = (0.75 * rttvar) + (0.25 * Math.abs(srtt - s));
+		srtt = (0.875 * srtt) + (0.125 * s);
+	    }
+	    rttsamples.incrementAndGet();
+	}
+
+	void objpkt(double now) {
+	    if(lastobj >= 0)
+		iat = (0.875 * iat) + (0.125 * Math.min(now - lastobj, OBJACK_HOLD_MAX));
+	    lastobj = now;
+	}
+
+	public double srtt() {return(srtt);}
+	public double iat() {return(iat);}
+
+	public double hold() {
+	    return(Utils.clip(iat * 3, MINHOLD, OBJACK_HOLD));
+	}
+
+	public double maxhold() {
+	    if(srtt < 0)
+		return(OBJACK_HOLD_MAX);
+	    return(Math.max(OBJACK_HOLD_MAX - (srtt + (2 * rttvar)), OBJACK_HOLD));
+	}
+
+	public double perpacket() {
+	    long p = objackpkts.get();
+	    return((p == 0) ? 0 : ((double)objacks.get() / p));
+	}
+    }
+
+    /* Counters are only ever incremented from the connection thread
+     * and the object appliers, and read for display, so they are kept
+     * as plain atomics rather than under any lock. */
+    public static class Stats {
+	public static final String[] typenames = {"sess", "rel", "ack", "beat", "mapreq", "mapdata", "objdata", "objack", "close", "crypt"};
+	public final AtomicLongArray rxpkts = new AtomicLongArray(256), rxbytes = new AtomicLongArray(256);
+	public final AtomicLongArray txpkts = new AtomicLongArray(256), txbytes = new AtomicLongArray(256);
+	public final AtomicLong resends = new AtomicLong(0), frags = new AtomicLong(0), fragtimeouts = new AtomicLong(0);
+	public final Histogram applylat = new Histogram();
+
+	/* Log2-bucketed histogram of durations in microseconds. */
+	public static class Histogram {
+	    public final AtomicLongArray buckets = new AtomicLongArray(32);
+	    public final AtomicLong n = new AtomicLong(0), sum = new AtomicLong(0);
+
+	    public void add(double sec) {
+		long us = Math.max((long)(sec * 1e6), 0);
+		buckets.incrementAndGet(Math.min(64 - Long.numberOfLeadingZeros(us), buckets.length() - 1));
+		n.incrementAndGet();
+		sum.addAndGet(us);
+	    }
+
+	    public double mean() {
+		long n = this.n.get();
+		return((n == 0) ? 0 : (sum.get() * 1e-6 / n));
+	    }
+
+	    /* Upper bound of the bucket containing the given quantile. */
+	    public double quantile(double q) {
+		long n = this.n.get(), acc = 0;
+		for(int i = 0; i < buckets.length(); i++) {
+		    if((acc += buckets.get(i)) >= q * n)
+			return((1L << i) * 1e-6);
+		}
+		return((1L << buckets.length()) * 1e-6);
+	    }
+	}
+
+	public static String typename(int type) {
+	    return((type < typenames.length) ? typenames[type] : Integer.toString(type));
+	}
+
+	public long total(AtomicLongArray a) {
+	    long ret = 0;
+	    for(int i = 0; i < a.length(); i++)
+		ret += a.get(i);
+	    return(ret);
+	}
+
+	void rx(int type, int len) {
+	    rxpkts.incrementAndGet(type);
+	    rxbytes.addAndGet(type, len);
+	}
+
+	void tx(int type, int len) {
+	    txpkts.incrementAndGet(type);
+	    txbytes.addAndGet(type, len);
+	}
+    }
+
+    public int pending() {
+	synchronized(pending) {
+	    return(pending.size());
+	}
+    }
+
+    public List<String> statreport() {
+	List<String> buf = new ArrayList<>();
+	buf.add(String.format("in: %,d pkts, %,d bytes; out: %,d pkts, %,d bytes",
+			      stats.total(stats.rxpkts), stats.total(stats.rxbytes), stats.total(stats.txpkts), stats.total(stats.txbytes)));
+	for(int i = 0; i < 256; i++) {
+	    long rp = stats.rxpkts.get(i), tp = stats.txpkts.get(i);
+	    if((rp != 0) || (tp != 0))
+		buf.add(String.format("  %-8s in %,d (%,d B), out %,d (%,d B)", Stats.typename(i), rp, stats.rxbytes.get(i), tp, stats.txbytes.get(i)));
+	}
+	double srtt = ackctl.srtt();
+	buf.add(String.format("rtt: %s, objdata interval %.1f ms, objack hold %.0f/%.0f ms",
+			      (srtt < 0) ? "n/a" : String.format("%.1f ms", srtt * 1000), ackctl.iat() * 1000, ackctl.hold() * 1000, ackctl.maxhold() * 1000));
+	buf.add(String.format("rel: %,d pending, %,d resends; %,d fragments", pending(), stats.resends.get(), stats.frags.get()));
+	buf.add(String.format("objack: %,d acks in %,d pkts (%.1f/pkt), %,d sent early",
+			      ackctl.objacks.get(), ackctl.objackpkts.get(), ackctl.perpacket(), ackctl.early.get()));
+	buf.add(String.format("deltas: %,d queued, %,d coalesced; apply latency mean %.1f ms, p50 < %.1f ms, p99 < %.1f ms",
+			      OCache.DeltaQueue.queued.get(), OCache.DeltaQueue.coalesced.get(),
+			      stats.applylat.mean() * 1000, stats.applylat.quantile(0.5) * 1000, stats.applylat.quantile(0.99) * 1000));
+	buf.add(String.format("mapdata: %,d fragment timeouts", stats.fragtimeouts.get()));
+	return(buf);
+    }
+
     private class Main implements Task {
 	private final Map<Short, RMessage> waiting = new HashMap<>();
 	private final Map<Long, ObjAck> objacks = new HashMap<>();
 	private double now, lasttx;
 	private short rseq, ackseq;
 	private double acktime = -1;
-	private byte[] fragbuf = null;
+	private MessageBuf fragbuf = null;
 	private int fragtype;
 
 	private void handlerel(PMessage msg) {
@@ -459,18 +636,19 @@ public class Connection {
 		if((head & 0x80) == 0) {
 		    if(fragbuf != null)
 			throw(new Session.MessageException("Got start fragment while still defragmenting", msg));
-		    fragbuf = msg.bytes();
+		    fragbuf = new MessageBuf();
+		    fragbuf.addbytes(msg.rbuf, msg.rh, msg.rem());
 		    fragtype = head;
 		} else {
 		    if((head == 0x80) || (head == 0x81)) {
-			byte[] frag = msg.bytes();
-			byte[] curbuf = fragbuf;
-			byte[] newbuf = new byte[curbuf.length + frag.length];
-			System.arraycopy(curbuf, 0, newbuf, 0, curbuf.length);
-			System.arraycopy(frag, 0, newbuf, curbuf.length, frag.length);
-			fragbuf = newbuf;
+			if(fragbuf == null)
+			    throw(new Session.MessageException("Got continuation fragment without start fragment", msg));
+			fragbuf.addbytes(msg.rbuf, msg.rh, msg.rem());
+			stats.frags.incrementAndGet();
 			if(head == 0x81) {
-			    PMessage nmsg = new PMessage(fragtype, fragbuf);
+			    /* The reassembled message takes over the
+			     * write buffer rather than copying it out. */
+			    PMessage nmsg = new PMessage(fragtype, fragbuf.wbuf, 0, fragbuf.size());
 			    fragbuf = null;
 			    handlerel(nmsg);
 			}
@@ -479,10 +657,7 @@ public class Connection {
 		    }
 		}
 	    } else {
-		for(Iterator<Callback> i = cbs.iterator(); i.hasNext();) {
-		    Callback cb = i.next();
-		    cb.handle(i.hasNext() ? msg.clone() : msg);
-		}
+		cbmsg(msg);
 	    }
 	}
 
@@ -512,22 +687,28 @@ public class Connection {
 		for(Iterator<RMessage> i = pending.iterator(); i.hasNext();) {
 		    RMessage msg = i.next();
 		    short sd = (short)(msg.seq - seq);
-		    if(sd <= 0)
+		    if(sd <= 0) {
+			/* Only sample messages sent once, since an ack
+			 * for a resent one is ambiguous. */
+			if(msg.retx == 1)
+			    ackctl.rtt(now - msg.last);
 			i.remove();
-		    else
+		    } else
 			break;
 		}
 	    }
 	}
 
 	private void gotmapdata(MessageBuf msg) {
-	    for(Iterator<Callback> i = cbs.iterator(); i.hasNext();) {
-		Callback cb = i.next();
-		cb.mapdata(i.hasNext() ? msg.clone() : msg);
-	    }
+	    cbmap(msg);
 	}
 
-	private void gotobjdata(Message msg) {
+	private void gotobjdata(Message pkt) {
+	    /* Copy the packet out of the receive buffer once, and let
+	     * the attribute deltas view slices of that copy, rather
+	     * than copying every attribute separately. */
+	    MessageBuf msg = new MessageBuf(pkt.bytes());
+	    ackctl.objpkt(now);
 	    while(!msg.eom()) {
 		int fl = msg.uint8();
 		long id = msg.uint32();
@@ -555,17 +736,15 @@ public class Connection {
 			    len = msg.uint16();
 			}
 		    }
-		    OCache.AttrDelta attr = new OCache.AttrDelta(delta, type, msg, len);
+		    OCache.AttrDelta attr = new OCache.AttrDelta(delta, type, msg.rbuf, msg.rh, len);
+		    msg.skip(len);
 		    if(type == OCache.OD_REM) {
 			delta.rem = true;
 		    } else {
 			delta.attrs.add(attr);
 		    }
 		}
-		for(Iterator<Callback> i = cbs.iterator(); i.hasNext();) {
-		    Callback cb = i.next();
-		    cb.handle(i.hasNext() ? delta.clone() : delta);
-		}
+		cbdelta(delta);
 		ObjAck ack = objacks.get(id);
 		if(ack == null) {
 		    objacks.put(id, ack = new ObjAck(id, fr, now));
@@ -637,6 +816,8 @@ public class Connection {
 			PMessage rmsg = new PMessage(Session.MSG_REL);
 			rmsg.adduint16(msg.seq).adduint8(msg.type).addbytes(msg.fin());
 			send(rmsg);
+			if(msg.retx > 0)
+			    stats.resends.incrementAndGet();
 			msg.last = now;
 			msg.retx++;
 			lasttx = now;
@@ -649,32 +830,52 @@ public class Connection {
 	}
 
 	private double sendobjacks() {
-	    double mint = -1;
+	    double hold = ackctl.hold(), max = ackctl.maxhold();
+	    boolean due = false;
+	    for(ObjAck ack : objacks.values()) {
+		if(Math.min(ack.lrecv + hold, ack.frecv + max) <= now) {
+		    due = true;
+		    break;
+		}
+	    }
+	    /* Once a datagram has to go out anyway, acks that would
+	     * fall due within another hold window go with it. */
+	    double mint = -1, flush = due ? (now + hold) : now;
 	    PMessage msg = null;
+	    int n = 0;
 	    for(Iterator<ObjAck> i = objacks.values().iterator(); i.hasNext();) {
 		ObjAck ack = i.next();
-		double txtime = Math.min(ack.lrecv + OBJACK_HOLD, ack.frecv + OBJACK_HOLD_MAX);
-		if(txtime <= now) {
+		double txtime = Math.min(ack.lrecv + hold, ack.frecv + max);
+		if(due && (txtime <= flush)) {
 		    if(msg == null) {
 			msg = new PMessage(Session.MSG_OBJACK);
-		    } else if(msg.size() > 1000 - 8) {
-			send(msg);
+		    } else if(msg.size() + 8 > OBJACK_MTU) {
+			sendobjack(msg, n);
 			msg = new PMessage(Session.MSG_OBJACK);
+			n = 0;
 		    }
 		    msg.adduint32(ack.id);
 		    msg.addint32(ack.frame);
+		    if(txtime > now)
+			ackctl.early.incrementAndGet();
+		    n++;
 		    i.remove();
 		} else {
 		    mint = min2(mint, txtime);
 		}
 	    }
-	    if(msg != null) {
-		send(msg);
-		lasttx = now;
-	    }
+	    if(msg != null)
+		sendobjack(msg, n);
 	    return(mint);
 	}
 
+	private void sendobjack(PMessage msg, int n) {
+	    send(msg);
+	    ackctl.objackpkts.incrementAndGet();
+	    ackctl.objacks.addAndGet(n);
+	    lasttx = now;
+	}
+
 	public Task run() {
 	    lasttx = now = Utils.rtime();
 	    double pendto = now;
@@ -697,6 +898,7 @@ public class Connection {
 				    continue;
 				msg = crypt.decrypt(msg);
 			    }
+			    stats.rx(msg.type & 0xff, msg.rem() + 1);
 			    if(msg.type == Session.MSG_CLOSE)
 				return(new Close(true));
 			    handlemsg(msg);
@@ -775,7 +977,88 @@ public class Connection {
 	}
     }
 
+    private class Replay implements Task {
+	private final BufferedReader in;
+	private final double speed;
+
+	private Replay(BufferedReader in, double speed) {
+	    this.in = in;
+	    this.speed = speed;
+	}
+
+	private OCache.ObjDelta objd(String[] w) {
+	    String fl = w[2];
+	    OCache.ObjDelta delta = new OCache.ObjDelta(((fl.indexOf('v') >= 0) ? 2 : 0) | ((fl.indexOf('o') >= 0) ? 4 : 0),
+							Long.parseLong(w[3]), Integer.parseInt(w[4]));
+	    int a = 5;
+	    if(fl.indexOf('i') >= 0)
+		delta.initframe = Integer.parseInt(w[a++]);
+	    delta.rem = (fl.indexOf('d') >= 0);
+	    for(; a < w.length; a++) {
+		int p = w[a].indexOf(':');
+		byte[] data = Utils.bprint.dec(w[a].substring(p + 1));
+		delta.attrs.add(new OCache.AttrDelta(delta, Integer.parseInt(w[a].substring(0, p)), new MessageBuf(data), data.length));
+	    }
+	    return(delta);
+	}
+
+	public Task run() {
+	    double start = Utils.rtime();
+	    int n = 0;
+	    try {
+		for(String ln = in.readLine(); ln != null; ln = in.readLine()) {
+		    String[] w = ln.split(" ", -1);
+		    if(w.length < 2)
+			continue;
+		    if(speed > 0) {
+			double wait = start + (Double.parseDouble(w[0]) / speed) - Utils.rtime();
+			if(wait > 0)
+			    Thread.sleep((long)Math.ceil(wait * 1000));
+		    }
+		    Utils.checkirq();
+		    switch(w[1]) {
+		    case "rmsg":
+			cbmsg(new PMessage(Integer.parseInt(w[2]), Utils.bprint.dec(w[3])));
+			break;
+		    case "objd":
+			cbdelta(objd(w));
+			break;
+		    case "map":
+			cbmap(new MessageBuf(Utils.b64.dec(w[2])));
+			break;
+		    case "close":
+			return(null);
+		    }
+		    n++;
+		}
+	    } catch(InterruptedException e) {
+		return(null);
+	    } catch(IOException e) {
+		new Warning(e, "could not read replay trace").issue();
+		return(null);
+	    } finally {
+		System.err.printf("haven: replayed %d events in %.3f s\n", n, Utils.rtime() - start);
+		try {
+		    in.close();
+		} catch(IOException e) {
+		}
+	    }
+	    return(null);
+	}
+    }
+
+    /* Feed a trace written by Callback.Dumper to the registered
+     * callbacks, with its original timing scaled by speed, or as
+     * fast as possible if speed is not positive. */
+    public void replay(Reader trace, double speed) {
+	if(sk != null)
+	    throw(new IllegalStateException("cannot replay on a live connection"));
+	start(new Replay(new BufferedReader(trace), speed));
+    }
+
     public void queuemsg(PMessage pmsg) {
+	if(sk == null)
+	    return;
 	RMessage msg = new RMessage(pmsg);
 	synchronized(pending) {
 	    msg.seq = tseq;
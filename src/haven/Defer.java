@@ -33,7 +33,13 @@ import java.util.concurrent.atomic.*;
 
 public class Defer extends ThreadGroup {
     private static final Map<ThreadGroup, Defer> groups = new WeakHashMap<ThreadGroup, Defer>();
-    private final Queue<Future<?>> queue = new PrioQueue<Future<?>>();
+    private final PrioQueue<Future<?>> queue = new PrioQueue<Future<?>>();
+    /* Set once a task with a priority of its own has been deferred,
+     * whereafter the queue is reordered by current priorities at
+     * most every REHEAP seconds when polled. */
+    private boolean dynprio = false;
+    private double lastreheap = 0;
+    private static final double REHEAP = 0.1;
     private final Collection<Thread> pool = new LinkedList<Thread>();
     private final int maxthreads = Math.max(2, Runtime.getRuntime().availableProcessors() - 1);
     private final AtomicInteger busy = new AtomicInteger(0);
@@ -214,13 +220,17 @@ public class Defer extends ThreadGroup {
 	}
 	
 	public int priority() {
+	    if(task instanceof Prioritized)
+		return(((Prioritized)task).priority());
 	    return(prio);
 	}
 	
 	public void boostprio(int prio) {
 	    synchronized(this) {
-		if(this.prio < prio)
+		if(this.prio < prio) {
 		    this.prio = prio;
+		    queue.boosted(this);
+		}
 	    }
 	}
     }
@@ -240,7 +250,7 @@ public class Defer extends ThreadGroup {
 		    try {
 			long start = System.currentTimeMillis();
 			synchronized(queue) {
-			    while((f = queue.poll()) == null) {
+			    while((f = poll()) == null) {
 				if(System.currentTimeMillis() - start > 5000)
 				    return;
 				queue.wait(1000);
@@ -269,8 +279,21 @@ public class Defer extends ThreadGroup {
 	super(parent, "DPC threads");
     }
 
+    private Future<?> poll() {
+	if(dynprio) {
+	    double now = Utils.rtime();
+	    if(now - lastreheap > REHEAP) {
+		queue.reheap();
+		lastreheap = now;
+	    }
+	}
+	return(queue.poll());
+    }
+
     private void defer(final Future<?> f) {
 	synchronized(queue) {
+	    if(f.task instanceof Prioritized)
+		dynprio = true;
 	    boolean e = queue.isEmpty();
 	    queue.add(f);
 	    queue.notify();
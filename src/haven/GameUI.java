@@ -1118,6 +1118,7 @@ public class GameUI extends ConsoleHost implements Console.Directory, UI.Notice.
 //		mmap = blpanel.add(new CornerMap(UI.scale(new Coord(133, 133)), file), minimapc);
 //		mmap.lower();
 		mapfile = new MapWnd(file, map, Utils.getprefc("smallmapsz", new Coord(300,300)), "Map");
+		ui.sess.glob.map.warmfile = file;
 		mapfile.show(true);
 		add(mapfile, Utils.getprefc("smallmapc", new Coord(0, 150)));
 	    }
@@ -2466,6 +2467,16 @@ public class GameUI extends ConsoleHost implements Console.Directory, UI.Notice.
 //		    }
 //		}
 //	    });
+	cmdmap.put("netstat", new Console.Command() {
+		public void run(Console cons, String[] args) {
+		    if((args.length > 1) && args[1].equals("dump")) {
+			for(String ln : ui.sess.conn.statreport())
+			    cons.out.println(ln);
+		    } else {
+			add(new Netwnd(ui.sess.conn), UI.scale(100, 100));
+		    }
+		}
+	    });
 	cmdmap.put("chrmap", new Console.Command() {
 		public void run(Console cons, String[] args) {
 		    Utils.setpref("mapfile/" + chrid, args[1]);
@@ -60,6 +60,8 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
     public long id;
     public boolean removed = false;
     public final Glob glob;
+    Coord ocell = null;
+    double tickacc = 0;
 	public ConcurrentHashMap<Class<? extends GAttrib>, GAttrib> attr = new ConcurrentHashMap<>(); // ND: Make this ConcurrentHashMap to prevent concurrent modification exceptions. It doesn't seem to affect performance
     public final Collection<Overlay> ols = new ArrayList<Overlay>();
     public final Collection<RenderTree.Slot> slots = new CopyOnWriteArrayList<>(); // ND: Make this COW to prevent concurrent modification exceptions. It doesn't seem to affect performance
@@ -745,6 +747,7 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 		}
 	this.rc = c;
 	this.a = a;
+	glob.oc.moved(this);
     }
 
     public Placer placer() {
@@ -1246,34 +1249,32 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 						alarmPlayed.add(id);
 				}
 			}
-			if (res.name.startsWith("gfx/terobjs/barrel") && barrelContentsGobInfo == null) {
+			long traits = GobTraits.of(res);
+			if (((traits & GobTraits.BARREL) != 0) && barrelContentsGobInfo == null) {
 				barrelContentsGobInfo = new BarrelContentsGobInfo(this);
 				setattr(BarrelContentsGobInfo.class, barrelContentsGobInfo);
 			}
-			if (res.name.startsWith("gfx/terobjs/iconsign") && iconSignGobInfo == null) {
+			if (((traits & GobTraits.ICONSIGN) != 0) && iconSignGobInfo == null) {
 				iconSignGobInfo = new IconSignGobInfo(this);
 				setattr(IconSignGobInfo.class, iconSignGobInfo);
 			}
-			if (res.name.startsWith("gfx/terobjs/cheeserack") && cheeseRackInfo == null) {
+			if (((traits & GobTraits.CHEESERACK) != 0) && cheeseRackInfo == null) {
 				cheeseRackInfo = new GobCheeseRackInfo(this);
 				setattr(GobCheeseRackInfo.class, cheeseRackInfo);
 			}
-			if(((res.name.contains("gfx/terobjs/trees") && !res.name.endsWith("log") && !res.name.endsWith("oldtrunk"))
-			|| (res.name.contains("gfx/terobjs/bushes"))
-			|| (res.name.contains("gfx/terobjs/plants") && !res.name.endsWith("trellis"))) && growthInfo == null){
+			if (((traits & GobTraits.GROWING) != 0) && growthInfo == null) {
 				growthInfo = new GobGrowthInfo(this);
 				setattr(GobGrowthInfo.class, growthInfo);
 			}
-			if(((res.name.contains("gfx/terobjs/trees") && !res.name.endsWith("log") && !res.name.endsWith("oldtrunk"))
-			|| (res.name.contains("gfx/terobjs/bushes"))) && readyForHarvestInfo == null){
+			if (((traits & GobTraits.HARVESTABLE) != 0) && readyForHarvestInfo == null) {
 				readyForHarvestInfo = new GobReadyForHarvestInfo(this);
 				setattr(GobReadyForHarvestInfo.class, readyForHarvestInfo);
 			}
-			if ((res.name.equals("gfx/terobjs/chickencoop") || res.name.equals("gfx/terobjs/rabbithutch")) && foodWaterInfo == null) {
+			if (((traits & GobTraits.COOP) != 0) && foodWaterInfo == null) {
 				foodWaterInfo = new GobFoodWaterInfo(this);
 				setattr(GobFoodWaterInfo.class, foodWaterInfo);
 			}
-			if (res.name.equals("gfx/terobjs/beehive") && beeskepHarvestInfo == null) {
+			if (((traits & GobTraits.BEEHIVE) != 0) && beeskepHarvestInfo == null) {
 				beeskepHarvestInfo = new GobBeeskepHarvestInfo(this);
 				setattr(GobBeeskepHarvestInfo.class, beeskepHarvestInfo);
 			}
@@ -1313,13 +1314,13 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 				knocked = false;
 			}
 		}
-		if (this.getres().name.equals("gfx/borka/body")) {
+		if ((GobTraits.of(this.getres()) & GobTraits.PLAYER) != 0) {
 			isMannequin = (poses.contains("mannequinlift"));
 			isSkeleton = (poses.contains("deadskeletonpose"));
 		}
 		updateCritterAuras();
 		updateDangerousBeastRadii();
-		if (this.getres().name.equals("gfx/borka/body") && isSkeleton != null && !isSkeleton){
+		if (((GobTraits.of(this.getres()) & GobTraits.PLAYER) != 0) && isSkeleton != null && !isSkeleton){
 			checkIfPlayerOrMannequin();
 			if  (!isDeadPlayer){
 				checkIfPlayerIsDead(poses);
@@ -1440,7 +1441,7 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 	public void setCustomPlayerName() {
 		if (getattr(Buddy.class) == null && getattr(haven.res.ui.obj.buddy_n.Named.class) == null && isMannequin != null && !isMannequin && isSkeleton != null && !isSkeleton && glob != null && glob.sess != null && glob.sess.ui != null && glob.sess.ui.gui != null && glob.sess.ui.gui.map != null) {
 			if (getres() != null) {
-				if (getres().name.equals("gfx/borka/body")) {
+				if ((GobTraits.of(getres()) & GobTraits.PLAYER) != 0) {
 					long plgobid = glob.sess.ui.gui.map.plgob;
 					if (plgobid != -1 && plgobid != id) {
 						if (isLoftar)
@@ -1458,7 +1459,7 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 
 	public void isItLoftar(List<Composited.MD> mod, List<Composited.ED> equ) {
 		if (getres() != null) {
-			if (getres().name.equals("gfx/borka/body")) {
+			if ((GobTraits.of(getres()) & GobTraits.PLAYER) != 0) {
 				if (mod != null && equ != null) {
 					if (!mod.isEmpty() && !equ.isEmpty()) {
 						boolean isMale = false;
@@ -1951,21 +1952,21 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 
 	public void updateCritterAuras() {
 		if (getres() != null) {
-			String resourceName = getres().name;
+			long traits = GobTraits.of(getres());
 			if (knocked != null && !knocked) {
-				if (Arrays.stream(Config.critterResPaths).anyMatch(resourceName::matches)) {
+				if ((traits & GobTraits.CRITTER) != 0) {
 					setAuraCircleOverlay(OptWnd.showCritterAurasCheckBox.a, OptWnd.genericCritterAuraColorOptionWidget.currentColor);
-				} else if (resourceName.matches(".*(rabbit|bunny)$")) {
+				} else if ((traits & GobTraits.RABBIT) != 0) {
 					setAuraCircleOverlay(OptWnd.showCritterAurasCheckBox.a, OptWnd.rabbitAuraColorOptionWidget.currentColor);
 				}
 			} else if (knocked != null && knocked) {
-				if (Arrays.stream(Config.critterResPaths).anyMatch(resourceName::matches)) {
+				if ((traits & GobTraits.CRITTER) != 0) {
 					setAuraCircleOverlay(false, OptWnd.genericCritterAuraColorOptionWidget.currentColor);
-				} else if (resourceName.matches(".*(rabbit|bunny)$")) {
+				} else if ((traits & GobTraits.RABBIT) != 0) {
 					setAuraCircleOverlay(false, OptWnd.rabbitAuraColorOptionWidget.currentColor);
 				}
 			} else if (!isComposite) { // ND: For critters that can't have a knocked status, like insects.
-				if (Arrays.stream(Config.critterResPaths).anyMatch(resourceName::matches)) {
+				if ((traits & GobTraits.CRITTER) != 0) {
 					setAuraCircleOverlay(OptWnd.showCritterAurasCheckBox.a, OptWnd.genericCritterAuraColorOptionWidget.currentColor);
 				}
 			}
@@ -1994,26 +1995,24 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 
 	public void updateSpeedBuffAuras() {
 		if (getres() != null) {
-			String resourceName = getres().name;
-			if (resourceName.equals("gfx/terobjs/boostspeed"))
+			if ((GobTraits.of(getres()) & GobTraits.SPEEDBUFF) != 0)
 				setAuraCircleOverlay(OptWnd.showSpeedBuffAurasCheckBox.a, OptWnd.speedBuffAuraColorOptionWidget.currentColor, 6f);
 		}
 	}
 
 	public void updateMidgesAuras() {
 		if (getres() != null) {
-			String resourceName = getres().name;
-			if (resourceName.equals("gfx/kritter/midgeswarm/midgeswarm"))
+			if ((GobTraits.of(getres()) & GobTraits.MIDGES) != 0)
 				setAuraCircleOverlay(OptWnd.showMidgesCircleAurasCheckBox.a, new Color(192, 0, 0, 140), 6f);
 		}
 	}
 
 	public void updateDangerousBeastRadii() {
 		if (getres() != null) {
-			String resourceName = getres().name;
+			long traits = GobTraits.of(getres());
 			if (knocked != null && knocked == false) {
-				if (Arrays.stream(Config.beastResPaths).anyMatch(resourceName::endsWith)) {
-					if (resourceName.endsWith("/bat")) {
+				if ((traits & GobTraits.BEAST) != 0) {
+					if ((traits & GobTraits.BAT) != 0) {
 						if (nightQueenDefeated || batWingCapeEquipped) {
 							setRadiusOverlay(false, null, 0f);
 						} else {
@@ -2024,13 +2023,13 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 					}
 				}
 			} else if (knocked != null && knocked == true) {
-				if (Arrays.stream(Config.beastResPaths).anyMatch(resourceName::endsWith)) {
+				if ((traits & GobTraits.BEAST) != 0) {
 					setRadiusOverlay(false, null, 0f);
 				}
 			}
 			else if (isComposite && knocked == null) { // ND: Workaround. Some of these animals have no animation when standing still, so knocked stays null. I think they have no poses to load or something. Didn't look too much into it.
-				if (Arrays.stream(Config.beastResPaths).anyMatch(resourceName::endsWith)) {
-					if (resourceName.endsWith("/bat")) {
+				if ((traits & GobTraits.BEAST) != 0) {
+					if ((traits & GobTraits.BAT) != 0) {
 						if (nightQueenDefeated || batWingCapeEquipped) {
 							setRadiusOverlay(false, null, 0f);
 						} else {
@@ -2064,8 +2063,7 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 
 	public void updateTroughsRadius() {
 		if (getres() != null) {
-			String resourceName = getres().name;
-			if (resourceName.equals("gfx/terobjs/trough")){
+			if ((GobTraits.of(getres()) & GobTraits.TROUGH) != 0) {
 				setRadiusOverlay(OptWnd.showFoodTroughsRadiiCheckBox.a, new Color(255, 136, 0, 128), 200f);
 			}
 		}
@@ -2073,8 +2071,7 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 
 	public void updateBeeSkepRadius() {
 		if (getres() != null) {
-			String resourceName = getres().name;
-			if (resourceName.equals("gfx/terobjs/beehive")){
+			if ((GobTraits.of(getres()) & GobTraits.BEEHIVE) != 0) {
 				setRadiusOverlay(OptWnd.showBeeSkepsRadiiCheckBox.a, new Color(255, 242, 0, 128), 150f);
 			}
 		}
@@ -2082,8 +2079,7 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 
 	public void updateMoundBedsRadius() {
 		if (getres() != null) {
-			String resourceName = getres().name;
-			if (resourceName.equals("gfx/terobjs/moundbed")){
+			if ((GobTraits.of(getres()) & GobTraits.MOUNDBED) != 0) {
 				setRadiusOverlay(OptWnd.showMoundBedsRadiiCheckBox.a, new Color(158, 0, 207, 128), 225f);
 			}
 		}
@@ -2286,7 +2282,7 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 			if (c == null || c.comp.cmod.isEmpty()) return;
 			if (getres() != null) {
 				if (isMannequin != null && !isMannequin && isSkeleton != null && !isSkeleton){
-					if (getres().name.equals("gfx/borka/body")) {
+					if ((GobTraits.of(getres()) & GobTraits.PLAYER) != 0) {
 						Buddy buddyInfo = getattr(Buddy.class);
 						boolean isVillager = getattr(Vilmate.class) != null;
 						haven.res.ui.obj.buddy_n.Named namedInfo = getattr(haven.res.ui.obj.buddy_n.Named.class);
@@ -2341,8 +2337,7 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 
 	public void updateMineLadderRadius() {
 		if (getres() != null) {
-			String resourceName = getres().name;
-			if (resourceName.equals("gfx/terobjs/ladder")){
+			if ((GobTraits.of(getres()) & GobTraits.LADDER) != 0) {
 				setRadiusOverlay(OptWnd.showMineSupportRadiiCheckBox.a, new Color(0, 121, 12, 128), 100F);
 			}
 		}
@@ -2350,13 +2345,14 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 
 	public void updateSupportOverlays(){
 		if (getres() != null) {
-			if (getres().name.equals("gfx/terobjs/map/naturalminesupport") ){
+			long traits = GobTraits.of(getres());
+			if ((traits & GobTraits.NATSUPPORT) != 0) {
 				setMiningSafeTilesOverlay(OptWnd.showMineSupportSafeTilesCheckBox.a, (float) a, 0);
-			} else if (getres().name.equals("gfx/terobjs/ladder") || getres().name.equals("gfx/terobjs/minesupport") ){
+			} else if ((traits & GobTraits.MINESUPPORT) != 0) {
 				setMiningSafeTilesOverlay(OptWnd.showMineSupportSafeTilesCheckBox.a, (float) a, 1);
-			} else if (getres().name.equals("gfx/terobjs/column")){
+			} else if ((traits & GobTraits.COLUMN) != 0) {
 				setMiningSafeTilesOverlay(OptWnd.showMineSupportSafeTilesCheckBox.a, (float) a, 2);
-			} else if (getres().name.equals("gfx/terobjs/minebeam")){
+			} else if ((traits & GobTraits.MINEBEAM) != 0) {
 				setMiningSafeTilesOverlay(OptWnd.showMineSupportSafeTilesCheckBox.a, (float) a, 3);
 			}
 		}
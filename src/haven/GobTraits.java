@@ -0,0 +1,121 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/* Classification of object resources by name, for the feature hooks
+ * run from Gob.init and the update* methods. Every gob entering view
+ * goes through those, so the string matching is done once per
+ * resource name and cached as a bitset. */
+public class GobTraits {
+    public static final long BARREL        = 1L << 0;
+    public static final long ICONSIGN      = 1L << 1;
+    public static final long CHEESERACK    = 1L << 2;
+    public static final long GROWING       = 1L << 3;
+    public static final long HARVESTABLE   = 1L << 4;
+    public static final long COOP          = 1L << 5;
+    public static final long BEEHIVE       = 1L << 6;
+    public static final long CRITTER       = 1L << 7;
+    public static final long RABBIT        = 1L << 8;
+    public static final long SPEEDBUFF     = 1L << 9;
+    public static final long MIDGES        = 1L << 10;
+    public static final long BEAST         = 1L << 11;
+    public static final long BAT           = 1L << 12;
+    public static final long TROUGH        = 1L << 13;
+    public static final long MOUNDBED      = 1L << 14;
+    public static final long LADDER        = 1L << 15;
+    public static final long NATSUPPORT    = 1L << 16;
+    public static final long MINESUPPORT   = 1L << 17;
+    public static final long COLUMN        = 1L << 18;
+    public static final long MINEBEAM      = 1L << 19;
+    public static final long PLAYER        = 1L << 20;
+    private static final Map<String, Long> cache = new ConcurrentHashMap<>();
+
+    private static boolean tree(String nm) {
+	return(nm.contains("gfx/terobjs/trees") && !nm.endsWith("log") && !nm.endsWith("oldtrunk"));
+    }
+
+    private static long classify(String nm) {
+	long ret = 0;
+	if(nm.startsWith("gfx/terobjs/barrel"))
+	    ret |= BARREL;
+	if(nm.startsWith("gfx/terobjs/iconsign"))
+	    ret |= ICONSIGN;
+	if(nm.startsWith("gfx/terobjs/cheeserack"))
+	    ret |= CHEESERACK;
+	if(tree(nm) || nm.contains("gfx/terobjs/bushes") || (nm.contains("gfx/terobjs/plants") && !nm.endsWith("trellis")))
+	    ret |= GROWING;
+	if(tree(nm) || nm.contains("gfx/terobjs/bushes"))
+	    ret |= HARVESTABLE;
+	if(nm.equals("gfx/terobjs/chickencoop") || nm.equals("gfx/terobjs/rabbithutch"))
+	    ret |= COOP;
+	if(nm.equals("gfx/terobjs/beehive"))
+	    ret |= BEEHIVE;
+	if(Arrays.stream(Config.critterResPaths).anyMatch(nm::matches))
+	    ret |= CRITTER;
+	else if(nm.matches(".*(rabbit|bunny)$"))
+	    ret |= RABBIT;
+	if(nm.equals("gfx/terobjs/boostspeed"))
+	    ret |= SPEEDBUFF;
+	if(nm.equals("gfx/kritter/midgeswarm/midgeswarm"))
+	    ret |= MIDGES;
+	if(Arrays.stream(Config.beastResPaths).anyMatch(nm::endsWith))
+	    ret |= BEAST;
+	if(nm.endsWith("/bat"))
+	    ret |= BAT;
+	if(nm.equals("gfx/terobjs/trough"))
+	    ret |= TROUGH;
+	if(nm.equals("gfx/terobjs/moundbed"))
+	    ret |= MOUNDBED;
+	if(nm.equals("gfx/terobjs/ladder"))
+	    ret |= LADDER;
+	if(nm.equals("gfx/terobjs/map/naturalminesupport"))
+	    ret |= NATSUPPORT;
+	if(nm.equals("gfx/terobjs/ladder") || nm.equals("gfx/terobjs/minesupport"))
+	    ret |= MINESUPPORT;
+	if(nm.equals("gfx/terobjs/column"))
+	    ret |= COLUMN;
+	if(nm.equals("gfx/terobjs/minebeam"))
+	    ret |= MINEBEAM;
+	if(nm.equals("gfx/borka/body"))
+	    ret |= PLAYER;
+	return(ret);
+    }
+
+    public static long of(String nm) {
+	Long ret = cache.get(nm);
+	if(ret == null)
+	    cache.put(nm, ret = classify(nm));
+	return(ret);
+    }
+
+    public static long of(Resource res) {
+	return((res == null) ? 0 : of(res.name));
+    }
+}
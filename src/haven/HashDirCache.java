@@ -349,6 +349,22 @@ public class HashDirCache implements ResCache {
 	}
     }
 
+    /* Last modification time of the given entry in milliseconds,
+     * or -1 if there is no such entry. */
+    public long mtime(String name) throws IOException {
+	try(CacheFile cf = lookup(name, false)) {
+	    if(cf == null)
+		return(-1);
+	    return(Files.getLastModifiedTime(cf.p).toMillis());
+	}
+    }
+
+    /* A file of the given kind that belongs to this cache without
+     * being one of its entries, named so that list() passes it by. */
+    public Path auxpath(String name, String ext) {
+	return(pj(base, String.format("%016x.%s", namehash(idhash, name), ext)));
+    }
+
     public void remove(String name) throws IOException {
 	try(CacheFile cf = lookup(name, false)) {
 	    if(cf == null)
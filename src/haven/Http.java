@@ -27,8 +27,13 @@
 package haven;
 
 import java.util.function.*;
+import java.util.concurrent.Semaphore;
 import java.io.*;
 import java.net.*;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
 
 public class Http {
     public static final String USER_AGENT = useragent();
@@ -84,4 +89,80 @@ public class Http {
     public static InputStream fetch(URL url) throws IOException {
 	return(fetch(url, null));
     }
+
+    /* Bulk downloads go through one shared client instead, which keeps
+     * its connections and multiplexes requests over HTTP/2 where the
+     * server allows it. A request counts as in flight until its body
+     * has been closed, and at most maxreqs are. */
+    public static final Config.Variable<Integer> maxreqs = Config.Variable.propi("haven.httpreqs", 16);
+    private static final Semaphore inflight = new Semaphore(maxreqs.get());
+    private static HttpClient client = null;
+
+    public static synchronized HttpClient client() {
+	if(client == null) {
+	    /* Where host names are ignored, SslHelper's context does
+	     * not check them in its trust manager either. */
+	    client = HttpClient.newBuilder()
+		.version(HttpClient.Version.HTTP_2)
+		.followRedirects(HttpClient.Redirect.NORMAL)
+		.connectTimeout(Duration.ofSeconds(10))
+		.sslContext(ssl.context())
+		.build();
+	}
+	return(client);
+    }
+
+    private static InputStream request(URI uri) throws IOException {
+	HttpRequest req = HttpRequest.newBuilder(uri)
+	    .header("User-Agent", USER_AGENT)
+	    .GET().build();
+	try {
+	    inflight.acquire();
+	} catch(InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw(new InterruptedIOException("interrupted waiting to request " + uri));
+	}
+	boolean held = true;
+	try {
+	    HttpResponse<InputStream> rsp = client().send(req, HttpResponse.BodyHandlers.ofInputStream());
+	    int st = rsp.statusCode();
+	    if(st != 200) {
+		rsp.body().close();
+		if((st == 404) || (st == 410))
+		    throw(new FileNotFoundException(uri.toString()));
+		throw(new IOException(String.format("unexpected HTTP status %d for %s", st, uri)));
+	    }
+	    held = false;
+	    return(new FilterInputStream(rsp.body()) {
+		    private boolean closed = false;
+
+		    public void close() throws IOException {
+			try {
+			    super.close();
+			} finally {
+			    if(!closed) {
+				closed = true;
+				inflight.release();
+			    }
+			}
+		    }
+		});
+	} catch(InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw(new InterruptedIOException("interrupted requesting " + uri));
+	} finally {
+	    if(held)
+		inflight.release();
+	}
+    }
+
+    public static InputStream fetch(URI uri) throws IOException {
+	RetryingInputStream ret = new RetryingInputStream() {
+		protected InputStream create() throws IOException {
+		    return(request(uri));
+		}
+	    };
+	ret.check();
+	return(ret);
+    }
 }
@@ -93,6 +93,8 @@ public class MCache implements MapSource {
     private static class Request {
 	private long lastreq = 0;
 	private int reqs = 0;
+	private boolean prefetch = false;
+	private boolean warmed = false;
     }
 
     public static interface ZSurface {
@@ -240,17 +242,18 @@ public class MCache implements MapSource {
 	    this.a = a;
 	    this.id = id;
 	    ols.add(this);
-	    olseq++;
+	    oldirty(a);
 	}
 
 	public void destroy() {
 	    ols.remove(this);
-	    olseq++;
+	    oldirty(a);
 	}
 
 	public void update(Area a) {
 	    if(!a.equals(this.a)) {
-		olseq++;
+		oldirty(this.a);
+		oldirty(a);
 		this.a = a;
 	    }
 	}
@@ -269,26 +272,80 @@ public class MCache implements MapSource {
 	}
     }
 
+    /* Tiles of a grid, as indices into a palette of tileset IDs. The
+     * indices are bytes unless the grid uses more than 256 tilesets.
+     * Filled once when decoded and never modified afterwards. */
+    private static class Tilemap {
+	final int[] pal;
+	final byte[] b;
+	final short[] s;
+
+	Tilemap(int[] pal, byte[] b, short[] s) {
+	    this.pal = pal;
+	    this.b = b;
+	    this.s = s;
+	}
+
+	int get(int i) {
+	    return(pal[(b != null) ? (b[i] & 0xff) : (s[i] & 0xffff)]);
+	}
+    }
+
+    /* Heights of a grid, kept in the 8- or 16-bit quantization the
+     * server sent them in, or as a single value for flat grids. */
+    private static class Heightmap {
+	final float min, q;
+	final byte[] b;
+	final short[] s;
+	final float[] f;
+
+	Heightmap(float min, float q, byte[] b, short[] s, float[] f) {
+	    this.min = min;
+	    this.q = q;
+	    this.b = b;
+	    this.s = s;
+	    this.f = f;
+	}
+
+	float get(int i) {
+	    if(b != null)
+		return(min + ((b[i] & 0xff) * q));
+	    if(s != null)
+		return(min + ((s[i] & 0xffff) * q));
+	    if(f != null)
+		return(f[i]);
+	    return(min);
+	}
+    }
+
     public class Grid implements MapSource {
 	public final Coord gc, ul;
-	public final int tiles[] = new int[cmaps.x * cmaps.y];
-	public final float z[] = new float[cmaps.x * cmaps.y];
+	private volatile Tilemap tiles = new Tilemap(new int[1], new byte[cmaps.x * cmaps.y], null);
+	private volatile Heightmap z = new Heightmap(0, 0, null, null, null);
 	public Indir<Resource> ols[];
-	public boolean ol[][];
+	private BitSet ol[];
 	public long id;
 	public int seq = -1;
 	public boolean removed = false;
+	/* Set while the grid holds data from the local map file rather
+	 * than from the server. */
+	public volatile boolean provisional = false;
 	private int olseq = -1;
 	private final Cut cuts[];
 
 	public abstract class Deferred<T> implements Disposable {
+	    public final Coord cc;
 	    private Defer.Future<T> def;
 	    private T val;
 	    private boolean inited = false;
 
+	    public Deferred(Coord cc) {
+		this.cc = cc;
+	    }
+
 	    public T get() {
 		T ret = this.val;
-		if((ret == null) || (this.def != null)) {
+		if((ret == null) || (this.def != null) || !inited) {
 		    synchronized(this) {
 			if(!inited) {
 			    rebuild();
@@ -319,18 +376,33 @@ public class MCache implements MapSource {
 		return(this.val);
 	    }
 
+	    private class Build implements Defer.Callable<T>, Prioritized {
+		public T call() {return(build());}
+		public String toString() {return(message());}
+		public int priority() {return(cutprio(gc.mul(cutn).add(cc)));}
+	    }
+
 	    public void rebuild() {
 		synchronized(this) {
 		    Defer.Future<T> prev = this.def;
-		    this.def = Defer.later(new Defer.Callable<T>() {
-			    public T call() {return(build());}
-			    public String toString() {return(message());}
-			});
+		    this.def = builder.defer(new Build());
 		    if(prev != null)
 			prev.cancel();
 		}
 	    }
 
+	    /* Drops a build still pending for a cut that has left the
+	     * view range. It is started again when next asked for. */
+	    public void shed() {
+		synchronized(this) {
+		    if((this.def != null) && !this.def.done(-1)) {
+			this.def.cancel();
+			this.def = null;
+			inited = false;
+		    }
+		}
+	    }
+
 	    public void dispose() {
 		synchronized(this) {
 		    inited = true;
@@ -356,25 +428,22 @@ public class MCache implements MapSource {
 	    public final Deferred<Flavobjs> fo;
 	    public final Map<OverlayInfo, RenderTree.Node> ols = new HashMap<>();
 	    public final Map<OverlayInfo, RenderTree.Node> olols = new HashMap<>();
+	    private MapMesh olmesh = null;
 
 	    public Cut(Coord cc) {
 		this.cc = cc;
-		this.mesh = new Deferred<MapMesh>() {
+		this.mesh = new Deferred<MapMesh>(cc) {
 			public MapMesh build() {
 			    Random rnd = new Random(id);
 			    rnd.setSeed(rnd.nextInt() ^ cc.x);
 			    rnd.setSeed(rnd.nextInt() ^ cc.y);
 			    return(MapMesh.build(MCache.this, rnd, ul.add(cc.mul(cutsz)), cutsz));
 			}
-			public void update(MapMesh mesh) {
-			    super.update(mesh);
-			    olseq = -1;
-			}
 			public String message() {
 			    return("Building map...");
 			}
 		    };
-		this.fo = new Deferred<Flavobjs>() {
+		this.fo = new Deferred<Flavobjs>(cc) {
 			public Flavobjs build() {
 			    return(makeflavor(cc));
 			}
@@ -392,20 +461,24 @@ public class MCache implements MapSource {
 		} catch (Exception ignored) {}
 	    }
 
+	    void clearols() {
+		for(RenderTree.Node r : ols.values()) {
+		    if(r instanceof Disposable)
+			((Disposable)r).dispose();
+		}
+		ols.clear();
+		for(RenderTree.Node r : olols.values()) {
+		    if(r instanceof Disposable)
+			((Disposable)r).dispose();
+		}
+		olols.clear();
+	    }
+
 	    public void dispose() {
 		synchronized(this) {
 		    mesh.dispose();
 		    fo.dispose();
-		    for(RenderTree.Node r : ols.values()) {
-			if(r instanceof Disposable)
-			    ((Disposable)r).dispose();
-		    }
-		    ols.clear();
-		    for(RenderTree.Node r : olols.values()) {
-			if(r instanceof Disposable)
-			    ((Disposable)r).dispose();
-		    }
-		    olols.clear();
+		    clearols();
 		}
 	    }
 	}
@@ -421,19 +494,36 @@ public class MCache implements MapSource {
 	}
 
 	public int gettile(Coord tc) {
-	    return(tiles[tc.x + (tc.y * cmaps.x)]);
+	    return(tiles.get(tc.x + (tc.y * cmaps.x)));
+	}
+
+	public int gettile(int i) {
+	    return(tiles.get(i));
 	}
 
 	public double getz(Coord tc) {
-	    return(z[tc.x + (tc.y * cmaps.x)]);
+	    return(z.get(tc.x + (tc.y * cmaps.x)));
+	}
+
+	public float getz(int i) {
+	    return(z.get(i));
+	}
+
+	public boolean[] olmask(int ol) {
+	    boolean[] ret = new boolean[cmaps.x * cmaps.y];
+	    BitSet bits = this.ol[ol];
+	    for(int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1))
+		ret[i] = true;
+	    return(ret);
 	}
 
 	public void getol(OverlayInfo id, Area a, boolean[] buf) {
 	    for(int i = 0; i < ols.length; i++) {
 		if(ols[i].get().layer(ResOverlay.class) == id) {
+		    BitSet bits = ol[i];
 		    int o = 0;
 		    for(Coord c : a)
-			buf[o++] = ol[i][c.x + (c.y * cmaps.x)];
+			buf[o++] = bits.get(c.x + (c.y * cmaps.x));
 		    return;
 		}
 	    }
@@ -494,10 +584,11 @@ public class MCache implements MapSource {
 	    int nids = 0;
 	    {
 		boolean[] uids = new boolean[nsets.length];
+		Tilemap tiles = this.tiles;
 		int i = area.ul.x + (area.ul.y * cmaps.x);
 		for(int y = 0; y < cutsz.y; y++, i += (cmaps.x - cutsz.x)) {
 		    for(int x = 0; x < cutsz.x; x++, i++) {
-			int id = tiles[i];
+			int id = tiles.get(i);
 			if(!uids[id]) {
 			    uids[id] = true;
 			    if(nids >= ids.length)
@@ -565,24 +656,25 @@ public class MCache implements MapSource {
 	public RenderTree.Node getolcut(OverlayInfo id, Coord cc) {
 	    int nseq = MCache.this.olseq;
 	    if(this.olseq != nseq) {
-		for(int i = 0; i < cutn.x * cutn.y; i++) {
-		    for(RenderTree.Node r : cuts[i].ols.values()) {
-			if(r instanceof Disposable)
-			    ((Disposable)r).dispose();
-		    }
-		    for(RenderTree.Node r : cuts[i].olols.values()) {
-			if(r instanceof Disposable)
-			    ((Disposable)r).dispose();
-		    }
-		    cuts[i].ols.clear();
-		    cuts[i].olols.clear();
+		Collection<Area> dirty = oldirty(this.olseq);
+		for(Cut cut : cuts) {
+		    Area ca = Area.sized(ul.add(cut.cc.mul(cutsz)), cutsz).margin(1);
+		    if((dirty == null) || dirty.stream().anyMatch(ca::isects))
+			cut.clearols();
 		}
 		this.olseq = nseq;
 	    }
+	    /* Overlay meshes are made from the cut's terrain mesh, so
+	     * they are remade whenever that has been rebuilt. */
 	    Cut cut = geticut(cc);
+	    MapMesh mesh = getcut(cc);
+	    if(cut.olmesh != mesh) {
+		cut.clearols();
+		cut.olmesh = mesh;
+	    }
 	    if(!cut.ols.containsKey(id)) {
-		cut.ols.put(id, getcut(cc).makeol(id));
-		cut.olols.put(id, getcut(cc).makeolol(id));
+		cut.ols.put(id, mesh.makeol(id));
+		cut.olols.put(id, mesh.makeolol(id));
 	    }
 	    return(cut.ols.get(id));
 	}
@@ -612,6 +704,16 @@ public class MCache implements MapSource {
 		    fo.tick(dt);
 	    }
 	}
+
+	void shed(Coord fc, int range) {
+	    for(Cut cut : cuts) {
+		Coord ac = gc.mul(cutn).add(cut.cc);
+		if(Math.max(Math.abs(ac.x - fc.x), Math.abs(ac.y - fc.y)) > range) {
+		    cut.mesh.shed();
+		    cut.fo.shed();
+		}
+	    }
+	}
 	
 	public void gtick(Render g) {
 	    for(Cut cut : cuts) {
@@ -653,11 +755,16 @@ public class MCache implements MapSource {
 		cktileid(tileid);
 		nsets[tileid] = new Resource.Spec(Resource.remote(), resnm, resver);
 	    }
-	    for(int i = 0; i < tiles.length; i++) {
-		tiles[i] = buf.uint8();
-		if(nsets[tiles[i]] == null)
-		    throw(new Message.FormatError(String.format("Got undefined tile: " + tiles[i])));
+	    int[] pal = new int[256];
+	    for(int i = 0; i < pal.length; i++)
+		pal[i] = i;
+	    byte[] b = new byte[cmaps.x * cmaps.y];
+	    buf.bytes(b);
+	    for(int i = 0; i < b.length; i++) {
+		if(nsets[b[i] & 0xff] == null)
+		    throw(new Message.FormatError(String.format("Got undefined tile: " + (b[i] & 0xff))));
 	    }
+	    this.tiles = new Tilemap(pal, b, null);
 	}
 
 	private void filltiles2(Message buf) {
@@ -678,30 +785,47 @@ public class MCache implements MapSource {
 		nsets[tileid] = new Resource.Spec(Resource.remote(), resnm, resver);
 	    }
 	    boolean lg = maxid >= 256;
-	    for(int i = 0; i < tiles.length; i++) {
-		tiles[i] = tileids[lg ? buf.uint16() : buf.uint8()];
-		if(nsets[tiles[i]] == null)
-		    throw(new Message.FormatError(String.format("Got undefined tile: " + tiles[i])));
+	    int n = cmaps.x * cmaps.y;
+	    byte[] b = lg ? null : new byte[n];
+	    short[] sh = lg ? new short[n] : null;
+	    if(lg)
+		buf.uint16s(sh);
+	    else
+		buf.bytes(b);
+	    boolean[] ok = new boolean[maxid + 1];
+	    for(int i = 0; i < n; i++) {
+		int enc = lg ? (sh[i] & 0xffff) : (b[i] & 0xff);
+		if((enc < ok.length) && ok[enc])
+		    continue;
+		if((enc >= tileids.length) || (nsets[tileids[enc]] == null))
+		    throw(new Message.FormatError(String.format("Got undefined tile: " + enc)));
+		if(enc < ok.length)
+		    ok[enc] = true;
 	    }
+	    this.tiles = new Tilemap(tileids, b, sh);
 	}
 
 	private void fillz(Message buf) {
 	    int fmt = buf.uint8();
+	    int n = cmaps.x * cmaps.y;
 	    if(fmt == 0) {
-		float z = buf.float32() * 11;
-		for(int i = 0; i < this.z.length; i++)
-		    this.z[i] = z;
+		this.z = new Heightmap(buf.float32() * 11, 0, null, null, null);
 	    } else if(fmt == 1) {
 		float min = buf.float32() * 11, q = buf.float32() * 11;
-		for(int i = 0; i < z.length; i++)
-		    z[i] = min + (buf.uint8() * q);
+		byte[] b = new byte[n];
+		buf.bytes(b);
+		this.z = new Heightmap(min, q, b, null, null);
 	    } else if(fmt == 2) {
 		float min = buf.float32() * 11, q = buf.float32() * 11;
-		for(int i = 0; i < z.length; i++)
-		    z[i] = min + (buf.uint16() * q);
+		short[] sh = new short[n];
+		buf.uint16s(sh);
+		this.z = new Heightmap(min, q, null, sh, null);
 	    } else if(fmt == 3) {
-		for(int i = 0; i < z.length; i++)
-		    z[i] = buf.float32() * 11;
+		float[] f = new float[n];
+		buf.float32s(f);
+		for(int i = 0; i < n; i++)
+		    f[i] *= 11;
+		this.z = new Heightmap(0, 0, null, null, f);
 	    } else {
 		throw(new Message.FormatError(String.format("Unknown z-map format: %d", fmt)));
 	    }
@@ -723,7 +847,7 @@ public class MCache implements MapSource {
 	    if(fill_plots == null)
 		return;
 	    @SuppressWarnings("unchecked") Indir<Resource>[] olids = new Indir[0];
-	    boolean[][] ols = {};
+	    BitSet[] ols = {};
 	    while(!buf.eom()) {
 		int pidx = buf.uint8();
 		if(pidx == 255)
@@ -731,41 +855,38 @@ public class MCache implements MapSource {
 		int fl = buf.uint8();
 		Coord c1 = Coord.of(buf.uint8(), buf.uint8());
 		Coord c2 = Coord.of(buf.uint8(), buf.uint8());
-		boolean[] mask = new boolean[(c2.x - c1.x) * (c2.y - c1.y)];
-		if((fl & 1) != 0) {
-		    for(int i = 0, l = 0, m = buf.uint8(); i < mask.length; i++) {
-			if(l >= 8) {
-			    m = buf.uint8();
-			    l = 0;
-			}
-			mask[i] = (m & 1) != 0;
-			m >>= 1;
-			l++;
-		    }
-		} else {
-		    for(int i = 0; i < mask.length; i++)
-			mask[i] = true;
-		}
 		Indir<Resource> olid = fill_plots[pidx];
-		if(olid == null)
-		    continue;
-		int oi;
-		find: {
-		    for(oi = 0; oi < olids.length; oi++) {
-			if(olids[oi] == olid)
-			    break find;
+		BitSet ol = null;
+		if(olid != null) {
+		    int oi;
+		    find: {
+			for(oi = 0; oi < olids.length; oi++) {
+			    if(olids[oi] == olid)
+				break find;
+			}
+			olids = Arrays.copyOf(olids, oi + 1);
+			ols = Arrays.copyOf(ols, oi + 1);
+			olids[oi] = olid;
+			ols[oi] = new BitSet(cmaps.x * cmaps.y);
 		    }
-		    olids = Arrays.copyOf(olids, oi + 1);
-		    ols = Arrays.copyOf(ols, oi + 1);
-		    olids[oi] = olid;
+		    ol = ols[oi];
 		}
-		boolean[] ol = ols[oi];
-		if(ol == null)
-		    ols[oi] = ol = new boolean[cmaps.x * cmaps.y];
-		for(int y = c1.y, mi = 0; y < c2.y; y++) {
-		    for(int x = c1.x; x < c2.x; x++) {
-			ol[x + (y * cmaps.x)] |= mask[mi++];
+		/* The mask must be consumed even for unknown plots. */
+		if((fl & 1) != 0) {
+		    int len = (c2.x - c1.x) * (c2.y - c1.y);
+		    byte[] mask = new byte[Math.max((len + 7) / 8, 1)];
+		    buf.bytes(mask);
+		    if(ol != null) {
+			for(int y = c1.y, mi = 0; y < c2.y; y++) {
+			    for(int x = c1.x; x < c2.x; x++, mi++) {
+				if((mask[mi >> 3] & (1 << (mi & 7))) != 0)
+				    ol.set(x + (y * cmaps.x));
+			    }
+			}
 		    }
+		} else if(ol != null) {
+		    for(int y = c1.y; y < c2.y; y++)
+			ol.set(c1.x + (y * cmaps.x), c2.x + (y * cmaps.x));
 		}
 	    }
 	    this.ols = olids;
@@ -807,14 +928,52 @@ public class MCache implements MapSource {
 	    }
 	}
 
+	/* Rebuilds only the cuts, in this grid or its neighbours, whose
+	 * meshes depend on a tile or height that has changed. Heights
+	 * reach two tiles across through the vertex normals. */
+	private void ivchanged(Tilemap otiles, Heightmap oz) {
+	    Tilemap tiles = this.tiles;
+	    Heightmap z = this.z;
+	    if((tiles == otiles) && (z == oz))
+		return;
+	    Collection<Coord> dirty = new HashSet<>();
+	    for(int y = 0, i = 0; y < cmaps.y; y++) {
+		for(int x = 0; x < cmaps.x; x++, i++) {
+		    if((tiles.get(i) != otiles.get(i)) || (z.get(i) != oz.get(i))) {
+			for(Coord ac : Area.sized(ul.add(x, y), Coord.of(1, 1)).margin(2).div(cutsz))
+			    dirty.add(ac);
+		    }
+		}
+	    }
+	    for(Coord ac : dirty) {
+		Coord ngc = ac.div(cutn);
+		Grid g = ngc.equals(gc) ? this : grids.get(ngc);
+		if(g != null)
+		    g.geticut(ac.mod(cutn)).invalidate();
+	    }
+	}
+
 	public void fill(Message msg) {
+	    boolean refill = (seq >= 0);
+	    Tilemap otiles = tiles;
+	    Heightmap oz = z;
+	    long oid = id;
+	    Resource.Spec[] osets = nsets.clone();
+	    Indir<Resource>[] oolids = ols;
+	    BitSet[] ool = ol;
 	    int ver = msg.uint8();
 	    if(ver == 1) {
 		subfill(msg);
 	    } else {
 		throw(new RuntimeException("Unknown map data version " + ver));
 	    }
-	    invalidate();
+	    if(!refill || (id != oid) || !Arrays.equals(osets, 0, osets.length, nsets, 0, osets.length))
+		invalidate();
+	    else
+		ivchanged(otiles, oz);
+	    if(!refill || !Arrays.equals(oolids, ols) || !Arrays.equals(ool, ol))
+		oldirty(Area.sized(ul, cmaps));
+	    provisional = false;
 	    seq++;
 	}
 
@@ -827,6 +986,57 @@ public class MCache implements MapSource {
 	this.sess = sess;
     }
 
+    /* Overlay changes are logged with the area they cover, so that
+     * grids only remake the overlay meshes of the cuts they touch. */
+    private final LinkedList<Pair<Integer, Area>> ollog = new LinkedList<>();
+
+    private void oldirty(Area a) {
+	synchronized(ollog) {
+	    ollog.add(new Pair<>(++olseq, a));
+	    while(ollog.size() > 64)
+		ollog.removeFirst();
+	}
+    }
+
+    private Collection<Area> oldirty(int since) {
+	synchronized(ollog) {
+	    if(ollog.isEmpty() || (ollog.getFirst().a > since + 1))
+		return(null);
+	    Collection<Area> ret = new ArrayList<>();
+	    for(Pair<Integer, Area> ent : ollog) {
+		if(ent.a > since)
+		    ret.add(ent.b);
+	    }
+	    return(ret);
+	}
+    }
+
+    /* Cut meshes and flavor objects are built on a pool of their own,
+     * which takes them nearest the view focus first, counting cuts
+     * behind the camera as twice as far away. Builds still pending
+     * for cuts beyond the view range are dropped. */
+    private final Defer builder = new Defer(Thread.currentThread().getThreadGroup());
+    private volatile Coord2d viewfocus = null, viewdir = null;
+    private volatile int viewrange = 2;
+    private double lastshed = 0;
+
+    public void viewhint(Coord2d focus, Coord2d dir, int range) {
+	this.viewfocus = focus;
+	this.viewdir = dir;
+	this.viewrange = range;
+    }
+
+    private int cutprio(Coord ac) {
+	Coord2d fc = viewfocus, dir = viewdir;
+	if(fc == null)
+	    return(0);
+	Coord2d off = Coord2d.of(ac.mul(cutsz).add(cutsz.div(2))).mul(tilesz).sub(fc);
+	double d = off.abs();
+	if((dir != null) && ((off.x * dir.x) + (off.y * dir.y) < 0))
+	    d *= 2;
+	return(-(int)(d / tilesz.x));
+    }
+
     public void ctick(double dt) {
 	Collection<Grid> copy;
 	synchronized(grids) {
@@ -834,6 +1044,14 @@ public class MCache implements MapSource {
 	}
 	for(Grid g : copy)
 	    g.tick(dt);
+	Coord2d fc = viewfocus;
+	double now = Utils.rtime();
+	if((fc != null) && (now - lastshed > 0.25)) {
+	    Coord fcut = fc.floor(tilesz).div(cutsz);
+	    for(Grid g : copy)
+		g.shed(fcut, viewrange + 2);
+	    lastshed = now;
+	}
     }
 
     public void gtick(Render g) {
@@ -1043,8 +1261,9 @@ public class MCache implements MapSource {
 			grids.put(c, g = new Grid(c));
 		    g.fill(msg);
 		    req.remove(c);
-		    olseq++;
 		    chseq++;
+		    for(Map.Entry<Coord, Request> e : req.entrySet())
+			warm(e.getKey(), e.getValue());
 		    gridwait.wnotify();
 		}
 	    }
@@ -1073,8 +1292,10 @@ public class MCache implements MapSource {
 	    for(Iterator<Map.Entry<Integer, Defrag>> i = fragbufs.entrySet().iterator(); i.hasNext();) {
 		Map.Entry<Integer, Defrag> e = i.next();
 		Defrag old = e.getValue();
-		if(now - old.last > 10000)
+		if(now - old.last > 10000) {
+		    sess.conn.stats.fragtimeouts.incrementAndGet();
 		    i.remove();
+		}
 	    }
 	}
     }
@@ -1164,8 +1385,158 @@ public class MCache implements MapSource {
 
     public void request(Coord gc) {
 	synchronized(req) {
-	    if(!req.containsKey(gc))
-		req.put(Coord.of(gc), new Request());
+	    if(!req.containsKey(gc)) {
+		Request r = new Request();
+		req.put(Coord.of(gc), r);
+		warm(gc, r);
+	    }
+	}
+    }
+
+    /* While a requested grid is on its way from the server, it is
+     * stood in for by the copy in the local map file, if one is known
+     * to be at its position: the grid ID is found from the map file
+     * segment of a grid already received, offset to the requested
+     * position. The provisional grid is then refilled in place when
+     * the server data arrives, which rebuilds only what differs. */
+    public volatile MapFile warmfile = null;
+
+    private void warm(Coord gc, Request r) {
+	MapFile file = this.warmfile;
+	if((file == null) || r.warmed)
+	    return;
+	Grid anchor = null;
+	synchronized(grids) {
+	    for(Grid g : grids.values()) {
+		if(!g.provisional && (g.seq >= 0) && ((anchor == null) || (g.gc.sub(gc).abs() < anchor.gc.sub(gc).abs())))
+		    anchor = g;
+	    }
+	}
+	if(anchor == null)
+	    return;
+	r.warmed = true;
+	Coord agc = anchor.gc, tgc = Coord.of(gc);
+	long aid = anchor.id;
+	Defer.later(() -> {
+		try {
+		    warmload(file, aid, tgc.sub(agc), tgc);
+		} catch(Loading l) {
+		}
+		return(null);
+	    });
+    }
+
+    private void warmload(MapFile file, long aid, Coord off, Coord gc) {
+	MapFile.Grid fg;
+	file.lock.readLock().lock();
+	try {
+	    MapFile.GridInfo info = file.gridinfo.get(aid);
+	    if(info == null)
+		return;
+	    MapFile.Segment seg = file.segments.get(info.seg);
+	    if(seg == null)
+		return;
+	    Long id = seg.map.get(info.sc.add(off));
+	    if(id == null)
+		return;
+	    fg = MapFile.Grid.load(file, id);
+	} finally {
+	    file.lock.readLock().unlock();
+	}
+	if(fg == null)
+	    return;
+	/* Only tilesets this session already has IDs for can be
+	 * used, since the IDs are assigned by the server. */
+	Map<String, Integer> setids = new HashMap<>();
+	Resource.Spec[] nsets = this.nsets;
+	for(int i = 0; i < nsets.length; i++) {
+	    if(nsets[i] != null)
+		setids.put(nsets[i].name, i);
+	}
+	int[] pal = new int[fg.tilesets.length];
+	for(int i = 0; i < pal.length; i++) {
+	    Integer tid = setids.get(fg.tilesets[i].res.name);
+	    if(tid == null)
+		return;
+	    pal[i] = tid;
+	}
+	if(pal.length > 256)
+	    return;
+	byte[] b = new byte[cmaps.x * cmaps.y];
+	for(int i = 0; i < b.length; i++)
+	    b[i] = (byte)fg.tiles[i];
+	synchronized(grids) {
+	    synchronized(req) {
+		if(grids.containsKey(gc) || !req.containsKey(gc))
+		    return;
+		Grid g = new Grid(gc);
+		g.id = fg.id;
+		g.tiles = new Tilemap(pal, b, null);
+		g.z = new Heightmap(0, 0, null, null, fg.zmap);
+		@SuppressWarnings("unchecked") Indir<Resource>[] nols = new Indir[0];
+		g.ols = nols;
+		g.ol = new BitSet[0];
+		g.provisional = true;
+		g.seq = 0;
+		grids.put(gc, g);
+		chseq++;
+		gridwait.wnotify();
+	    }
+	}
+    }
+
+    /* Requests the grids the player is about to need, by projecting
+     * its current movement ahead in half-second steps and asking for
+     * the grids around each point, nearest first. At most
+     * PREFETCH_MAX such requests are outstanding at a time, so that
+     * they don't crowd out the grids actually being waited for. The
+     * camera focus is projected the same way when the camera is not
+     * following the player. */
+    public static final double PREFETCH_AHEAD = 5.0;
+    public static final int PREFETCH_MAX = 4;
+
+    public void prefetch(Gob pl, int margin) {
+	Coord2d v = null;
+	double ahead = PREFETCH_AHEAD;
+	Moving m = pl.getattr(Moving.class);
+	if(m instanceof LinMove) {
+	    v = ((LinMove)m).v;
+	} else if(m instanceof Homing) {
+	    Homing h = (Homing)m;
+	    Gob tgt = sess.glob.oc.getgob(h.tgt);
+	    Coord2d d = ((tgt != null) ? tgt.rc : h.tc).sub(pl.rc);
+	    double e = d.abs();
+	    if((e > 0.00001) && (h.v > 0)) {
+		v = d.mul(h.v / e);
+		ahead = Math.min(ahead, e / h.v);
+	    }
+	}
+	prefetch(pl.rc, v, ahead, margin);
+    }
+
+    public void prefetch(Coord2d c, Coord2d v, double ahead, int margin) {
+	if((v == null) || (v.abs() < 0.00001))
+	    return;
+	synchronized(grids) {
+	    synchronized(req) {
+		int out = 0;
+		for(Request r : req.values()) {
+		    if(r.prefetch)
+			out++;
+		}
+		for(double t = 0.5; (t <= ahead) && (out < PREFETCH_MAX); t += 0.5) {
+		    Coord tc = c.add(v.mul(t)).floor(tilesz);
+		    Area ga = Area.corn(tc.sub(margin, margin), tc.add(margin, margin)).div(cmaps);
+		    for(Coord gc : ga) {
+			if((out >= PREFETCH_MAX) || grids.containsKey(gc) || req.containsKey(gc))
+			    continue;
+			Request r = new Request();
+			r.prefetch = true;
+			req.put(Coord.of(gc), r);
+			out++;
+		    }
+		}
+	    }
 	}
     }
 
@@ -1183,7 +1554,7 @@ public class MCache implements MapSource {
 
     public void sendreqs() {
 	long now = System.currentTimeMillis();
-	boolean updated = false;
+	Collection<Coord> expired = new ArrayList<>();
 	synchronized(req) {
 	    for(Iterator<Map.Entry<Coord, Request>> i = req.entrySet().iterator(); i.hasNext();) {
 		Map.Entry<Coord, Request> e = i.next();
@@ -1193,7 +1564,7 @@ public class MCache implements MapSource {
 		    r.lastreq = now;
 		    if(++r.reqs >= 5) {
 			i.remove();
-			updated = true;
+			expired.add(c);
 		    } else {
 			PMessage msg = new PMessage(Session.MSG_MAPREQ);
 			msg.addcoord(c);
@@ -1202,8 +1573,22 @@ public class MCache implements MapSource {
 		}
 	    }
 	}
-	if(updated) {
+	if(!expired.isEmpty()) {
+	    /* Grids are always locked before requests, so the provisional
+	     * grids of expired requests are dropped only once the request
+	     * map has been released. */
 	    synchronized(grids) {
+		for(Coord c : expired) {
+		    Grid g = grids.get(c);
+		    boolean rereq;
+		    synchronized(req) {
+			rereq = req.containsKey(c);
+		    }
+		    if((g != null) && g.provisional && !rereq) {
+			g.dispose();
+			grids.remove(c);
+		    }
+		}
 		gridwait.wnotify();
 	    }
 	}
@@ -413,14 +413,8 @@ public class MainFrame extends java.awt.Frame implements Console.Directory, AWTE
 	    Resource.setcache(ResCache.global);
 	if(Resource.resurl.get() != null)
 	    Resource.addurl(Resource.resurl.get());
-	if(ResCache.global != null) {
-	    /*
-	    try {
-		Resource.loadlist(Resource.remote(), ResCache.global.fetch("tmp/allused"), -10);
-	    } catch(IOException e) {}
-	    */
-	}
 	if(!nopreload.get()) {
+	    prefetch();
 	    try {
 		InputStream pls;
 		pls = Resource.class.getResourceAsStream("res-preload");
@@ -435,21 +429,47 @@ public class MainFrame extends java.awt.Frame implements Console.Directory, AWTE
 	}
     }
 
+    /* The resources used in a session, in the order first used, are
+     * saved as a manifest on exit, followed by those used in earlier
+     * sessions but not this one, and queued for loading at the lowest
+     * priority on the next start, so that they are fetched into the
+     * cache and pool before they are asked for. */
+    public static final Config.Variable<Integer> manifestsz = Config.Variable.propi("haven.resmanifest", 20000);
+    private static final Map<String, Integer> prevmanifest = new LinkedHashMap<>();
+    private static void prefetch() {
+	if(ResCache.global == null)
+	    return;
+	try {
+	    prevmanifest.putAll(Resource.readlist(ResCache.global.fetch("tmp/manifest")));
+	} catch(IOException e) {
+	    return;
+	}
+	Resource.loadlist(Resource.remote(), prevmanifest, -20);
+    }
+
+    private static void savemanifest() {
+	if(ResCache.global == null)
+	    return;
+	Map<String, Integer> man = Resource.remote().useorder();
+	for(Map.Entry<String, Integer> ent : prevmanifest.entrySet())
+	    man.putIfAbsent(ent.getKey(), ent.getValue());
+	try(Writer w = new OutputStreamWriter(ResCache.global.store("tmp/manifest"), "us-ascii")) {
+	    int n = 0;
+	    for(Map.Entry<String, Integer> ent : man.entrySet()) {
+		if(n++ >= manifestsz.get())
+		    break;
+		w.write(ent.getKey() + ":" + ent.getValue() + "\n");
+	    }
+	} catch(IOException e) {
+	}
+    }
+
     public static final Config.Variable<Path> loadwaited = Config.Variable.propp("haven.loadwaited", "");
     public static final Config.Variable<Path> allused = Config.Variable.propp("haven.allused", "");
     public static void resdump() {
+	savemanifest();
 	dumplist(Resource.remote().loadwaited(), loadwaited.get());
 	dumplist(Resource.remote().cached(), allused.get());
-	if(ResCache.global != null) {
-	    try {
-		Writer w = new OutputStreamWriter(ResCache.global.store("tmp/allused"), "UTF-8");
-		try {
-		    Resource.dumplist(Resource.remote().used(), w);
-		} finally {
-		    w.close();
-		}
-	    } catch(IOException e) {}
-	}
     }
 
     static {
@@ -474,6 +494,9 @@ public class MainFrame extends java.awt.Frame implements Console.Directory, AWTE
 	javax.imageio.spi.IIORegistry.getDefaultInstance();
     }
 
+    public static final Config.Variable<Path> replay = Config.Variable.propp("haven.replay", "");
+    public static final Config.Variable<Double> replayspeed = Config.Variable.propf("haven.replayspeed", 1.0);
+
     public static void status(String state) {
 	if(status.get()) {
 	    System.out.println("hafen:status:" + state);
@@ -491,7 +514,14 @@ public class MainFrame extends java.awt.Frame implements Console.Directory, AWTE
 	}
 	setupres();
 	UI.Runner fun = null;
-	if(Bootstrap.servargs.get() != null) {
+	if(replay.get() != null) {
+	    try {
+		fun = new RemoteUI(Session.replay(replay.get(), replayspeed.get()));
+	    } catch(IOException e) {
+		System.err.println("hafen: " + e.getMessage());
+		System.exit(1);
+	    }
+	} else if(Bootstrap.servargs.get() != null) {
 	    try {
 		fun = new RemoteUI(connect(Bootstrap.servargs.get()));
 	    } catch(ConnectionError e) {
@@ -88,6 +88,8 @@ public class MapFile {
     }
 
     public static MapFile load(ResCache store, String filename) throws IOException {
+	if(store instanceof HashDirCache)
+	    store = PackCache.get((HashDirCache)store, "map/" + filename);
 	MapFile file = new MapFile(store, filename);
 	InputStream fp;
 	try {
@@ -211,7 +213,14 @@ public class MapFile {
     private Thread processor = null;
     private final Collection<Pair<MCache, Collection<MCache.Grid>>> updqueue = new HashSet<>();
     private final Collection<Segment> dirty = new HashSet<>();
-    private boolean gdirty = false;
+    private Segment storing = null;
+    private long dirtied = 0;
+    private boolean gdirty = false, idirty = false;
+    private long isaved = 0;
+    /* Dirty segments are written this long after first being marked,
+     * so that the grids added while walking go out in one batch. */
+    private static final long SEGDELAY = 1000;
+    private static final long IMGIDXDELAY = 10000;
     private class Processor extends HackThread {
 	Processor() {
 	    super("Mapfile processor");
@@ -228,13 +237,26 @@ public class MapFile {
 			if(!updqueue.isEmpty()) {
 			    Pair<MCache, Collection<MCache.Grid>> el = Utils.take(updqueue);
 			    task = () -> MapFile.this.update(el.a, el.b);
-			} else if(!dirty.isEmpty()) {
-			    Segment seg = Utils.take(dirty);
-			    task = locked(() -> segments.put(seg.id, seg), lock.writeLock());
+			} else if(!dirty.isEmpty() && (now - dirtied >= SEGDELAY)) {
+			    Segment seg = storing = Utils.take(dirty);
+			    task = () -> storeseg(seg);
 			} else if(gdirty) {
 			    task = locked(MapFile.this::save, lock.readLock());
 			    gdirty = false;
+			} else if(idirty && (now - isaved >= IMGIDXDELAY)) {
+			    task = imgcache::saveidx;
+			    idirty = false;
+			    isaved = now;
 			} else {
+			    if(!dirty.isEmpty() || idirty) {
+				long wait = Long.MAX_VALUE;
+				if(!dirty.isEmpty())
+				    wait = SEGDELAY - (now - dirtied);
+				if(idirty)
+				    wait = Math.min(wait, IMGIDXDELAY - (now - isaved));
+				procmon.wait(Math.max(wait, 1));
+				continue;
+			    }
 			    if(now - last > 10000) {
 				processor = null;
 				return;
@@ -254,6 +276,54 @@ public class MapFile {
 	    }
 	}
     }
+    private void segdirty(Segment seg) {
+	synchronized(procmon) {
+	    if(dirty.isEmpty())
+		dirtied = System.currentTimeMillis();
+	    dirty.add(seg);
+	    process();
+	}
+    }
+
+    /* A segment waiting to be written, or being written, which the
+     * segment cache must return rather than loading what is on disk,
+     * should it have dropped it meanwhile. */
+    private Segment unstored(long id) {
+	synchronized(procmon) {
+	    if((storing != null) && (storing.id == id))
+		return(storing);
+	    for(Segment seg : dirty) {
+		if(seg.id == id)
+		    return(seg);
+	    }
+	}
+	return(null);
+    }
+
+    /* Only the changed chunks of a known segment are written, under
+     * the read lock so that the map can still be drawn meanwhile. A
+     * new segment is stored whole, and made known, under the write
+     * lock. */
+    private void storeseg(Segment seg) {
+	try {
+	    boolean known;
+	    lock.readLock().lock();
+	    try {
+		if(known = knownsegs.contains(seg.id))
+		    seg.store();
+	    } finally {
+		lock.readLock().unlock();
+	    }
+	    if(!known)
+		locked(() -> segments.put(seg.id, seg), lock.writeLock()).run();
+	} finally {
+	    synchronized(procmon) {
+		if(storing == seg)
+		    storing = null;
+	    }
+	}
+    }
+
     private void process() {
 	synchronized(procmon) {
 	    if(processor == null) {
@@ -459,34 +529,32 @@ public class MapFile {
 	public BufferedImage render(Coord off) {
 	    BufferedImage[] texes = new BufferedImage[tilesets.length];
 	    boolean[] cached = new boolean[tilesets.length];
+	    int[][] texpx = new int[tilesets.length][];
 	    WritableRaster buf = PUtils.imgraster(cmaps);
-	    Coord c = new Coord();
-	    for(c.y = 0; c.y < cmaps.y; c.y++) {
-		for(c.x = 0; c.x < cmaps.x; c.x++) {
-		    int t = gettile(c);
+	    byte[] px = PUtils.rasterbytes(buf);
+	    for(int y = 0, i = 0; y < cmaps.y; y++) {
+		for(int x = 0; x < cmaps.x; x++, i++) {
+		    int t = tiles[i];
 		    BufferedImage tex = tiletex(t, texes, cached);
 		    int rgb = 0;
-		    if(tex != null)
-			rgb = tex.getRGB(Utils.floormod(c.x + off.x, tex.getWidth()),
-					 Utils.floormod(c.y + off.y, tex.getHeight()));
-		    buf.setSample(c.x, c.y, 0, (rgb & 0x00ff0000) >>> 16);
-		    buf.setSample(c.x, c.y, 1, (rgb & 0x0000ff00) >>>  8);
-		    buf.setSample(c.x, c.y, 2, (rgb & 0x000000ff) >>>  0);
-		    buf.setSample(c.x, c.y, 3, (rgb & 0xff000000) >>> 24);
+		    if(tex != null) {
+			if(texpx[t] == null)
+			    texpx[t] = PUtils.argb(tex);
+			int w = tex.getWidth();
+			rgb = texpx[t][Utils.floormod(x + off.x, w) + (Utils.floormod(y + off.y, tex.getHeight()) * w)];
+		    }
+		    PUtils.putargb(px, i, rgb);
 		}
 	    }
-	    for(c.y = 1; c.y < cmaps.y - 1; c.y++) {
-		for(c.x = 1; c.x < cmaps.x - 1; c.x++) {
-		    int p = tilesets[gettile(c)].prio;
-		    if((tilesets[gettile(c.add(-1, 0))].prio > p) ||
-		       (tilesets[gettile(c.add( 1, 0))].prio > p) ||
-		       (tilesets[gettile(c.add(0, -1))].prio > p) ||
-		       (tilesets[gettile(c.add(0,  1))].prio > p))
+	    for(int y = 1; y < cmaps.y - 1; y++) {
+		for(int x = 1, i = 1 + (y * cmaps.x); x < cmaps.x - 1; x++, i++) {
+		    int p = tilesets[tiles[i]].prio;
+		    if((tilesets[tiles[i - 1]].prio > p) ||
+		       (tilesets[tiles[i + 1]].prio > p) ||
+		       (tilesets[tiles[i - cmaps.x]].prio > p) ||
+		       (tilesets[tiles[i + cmaps.x]].prio > p))
 		    {
-			buf.setSample(c.x, c.y, 0, 0);
-			buf.setSample(c.x, c.y, 1, 0);
-			buf.setSample(c.x, c.y, 2, 0);
-			buf.setSample(c.x, c.y, 3, 255);
+			PUtils.putargb(px, i, 0xff000000);
 		    }
 		}
 	    }
@@ -508,6 +576,7 @@ public class MapFile {
 
 	public BufferedImage olrender(Coord off, String tag) {
 	    WritableRaster buf = PUtils.imgraster(cmaps);
+	    byte[] px = PUtils.rasterbytes(buf);
 	    for(Overlay ol : ols) {
 		MCache.ResOverlay olid = ol.olid.get().flayer(MCache.ResOverlay.class);
 		if(!olid.tags().contains(tag))
@@ -515,16 +584,9 @@ public class MapFile {
 		Color col = olcol(olid);
 		if(col == null)
 		    continue;
-		Coord c = new Coord();
-		for(c.y = 0; c.y < cmaps.y; c.y++) {
-		    for(c.x = 0; c.x < cmaps.x; c.x++) {
-			if(ol.get(c)) {
-			    buf.setSample(c.x, c.y, 0, ((col.getRed()   * col.getAlpha()) + (buf.getSample(c.x, c.y, 1) * (255 - col.getAlpha()))) / 255);
-			    buf.setSample(c.x, c.y, 1, ((col.getGreen() * col.getAlpha()) + (buf.getSample(c.x, c.y, 1) * (255 - col.getAlpha()))) / 255);
-			    buf.setSample(c.x, c.y, 2, ((col.getBlue()  * col.getAlpha()) + (buf.getSample(c.x, c.y, 2) * (255 - col.getAlpha()))) / 255);
-			    buf.setSample(c.x, c.y, 3, Math.max(buf.getSample(c.x, c.y, 3), col.getAlpha()));
-			}
-		    }
+		for(int i = 0; i < ol.ol.length; i++) {
+		    if(ol.ol[i])
+			PUtils.olblend(px, i, col);
 		}
 	    }
 	    return(PUtils.rasterimg(buf));
@@ -685,7 +747,8 @@ public class MapFile {
 	    int[] tmap = new int[16];
 	    int[] rmap = new int[16];
 	    Arrays.fill(tmap, -1);
-	    for(int tn : cg.tiles) {
+	    for(int ti = 0; ti < cmaps.x * cmaps.y; ti++) {
+		int tn = cg.gettile(ti);
 		if(tn >= tmap.length) {
 		    int pl = tmap.length;
 		    tmap = Utils.extend(tmap, Integer.highestOneBit(tn) * 2);
@@ -714,16 +777,14 @@ public class MapFile {
 	    }
 	    int[] tiles = new int[cmaps.x * cmaps.y];
 	    float[] zmap = new float[cmaps.x * cmaps.y];
-	    for(int i = 0; i < cg.tiles.length; i++) {
-		tiles[i] = tmap[cg.tiles[i]];
-		zmap[i] = cg.z[i];
+	    for(int i = 0; i < tiles.length; i++) {
+		tiles[i] = tmap[cg.gettile(i)];
+		zmap[i] = cg.getz(i);
 	    }
 	    Grid g = new Grid(cg.id, infos, tiles, zmap, System.currentTimeMillis());
 	    for(int i = 0; i < cg.ols.length; i++) {
-		if(cg.ol[i].length != (cmaps.x * cmaps.y))
-		    throw(new AssertionError(String.valueOf(cg.ol[i].length)));
 		Resource olres = Loading.waitfor(cg.ols[i]);
-		g.ols.add(new Overlay(new Resource.Saved(olres.pool, olres.name, olres.ver), Arrays.copyOf(cg.ol[i], cg.ol[i].length)));
+		g.ols.add(new Overlay(new Resource.Saved(olres.pool, olres.name, olres.ver), cg.olmask(i)));
 	    }
 	    g.norepl = norepl;
 	    g.useq = oseq;
@@ -1198,12 +1259,22 @@ public class MapFile {
 	    boolean got = false;
 	    Future<ZoomGrid> loading;
 
+	    /* Without a future, it is waiting for the pyramid builder
+	     * to hand it the grid. */
 	    ByZCoord(ZoomCoord zc, Future<ZoomGrid> loading) {
 		this.zc = zc;
 		this.loading = loading;
 	    }
 
+	    void set(ZoomGrid grid) {
+		loaded = grid;
+		got = true;
+		loading = null;
+	    }
+
 	    public ZoomGrid get() {
+		if((loading == null) && !got)
+		    throw(new Loading("Rebuilding zoom grid"));
 		if(loading != null) {
 		    try {
 			loaded = loading.get(0);
@@ -1236,12 +1307,123 @@ public class MapFile {
 		return(grid(gc));
 	    synchronized(zcache) {
 		ZoomCoord zc = new ZoomCoord(lvl, gc);
-		return(zcache.computeIfAbsent(zc, k -> new ByZCoord(k, loadzgrid(k))));
+		/* Zoom grids the pyramid builder has yet to redo are
+		 * stored empty, and are not built again here. */
+		return(zcache.computeIfAbsent(zc, k -> new ByZCoord(k, pyramid.pending(this, k) ? null : loadzgrid(k))));
+	    }
+	}
+
+	/* Segments are stored as a header listing their chunks of
+	 * 16x16 grids, with each chunk stored on its own,
+	 * so that adding grids only rewrites the chunks they fall in. */
+	private final Set<Coord> dchunks = new HashSet<>(), schunks = new HashSet<>();
+	private boolean whole = true;
+
+	private Coord chunk(Coord sc) {
+	    return(new Coord(sc.x >> SEGCHUNK_L, sc.y >> SEGCHUNK_L));
+	}
+
+	private void loadchunk(Coord cc) throws IOException {
+	    try(StreamMessage data = new StreamMessage(sfetch("segc-%x-%d-%d", id, cc.x, cc.y))) {
+		int ver = data.uint8();
+		if(ver != 1)
+		    throw(new Message.FormatError("Unknown segment chunk version: " + ver));
+		ZMessage z = new ZMessage(data);
+		long storedid = z.int64();
+		if(storedid != id)
+		    throw(new Message.FormatError(String.format("Segment chunk ID mismatch: expected %x, got %x", id, storedid)));
+		for(int i = 0, no = z.int32(); i < no; i++)
+		    map.put(z.coord(), z.int64());
+	    }
+	}
+
+	private synchronized void store() {
+	    Set<Coord> write = new HashSet<>();
+	    if(whole) {
+		for(Coord sc : map.keySet())
+		    write.add(chunk(sc));
+	    } else {
+		write.addAll(dchunks);
+	    }
+	    dchunks.clear();
+	    whole = false;
+	    if(write.isEmpty())
+		return;
+	    Map<Coord, List<Map.Entry<Coord, Long>>> ents = new HashMap<>();
+	    for(Coord cc : write)
+		ents.put(cc, new ArrayList<>());
+	    for(Map.Entry<Coord, Long> e : map.entrySet()) {
+		List<Map.Entry<Coord, Long>> buf = ents.get(chunk(e.getKey()));
+		if(buf != null)
+		    buf.add(e);
+	    }
+	    for(Map.Entry<Coord, List<Map.Entry<Coord, Long>>> ch : ents.entrySet()) {
+		Coord cc = ch.getKey();
+		OutputStream fp;
+		try {
+		    fp = sstore("segc-%x-%d-%d", id, cc.x, cc.y);
+		} catch(IOException e) {
+		    throw(new StreamMessage.IOError(e));
+		}
+		try(StreamMessage out = new StreamMessage(fp)) {
+		    out.adduint8(1);
+		    ZMessage z = new ZMessage(out);
+		    z.addint64(id);
+		    z.addint32(ch.getValue().size());
+		    for(Map.Entry<Coord, Long> e : ch.getValue())
+			z.addcoord(e.getKey()).addint64(e.getValue());
+		    z.finish();
+		}
+	    }
+	    if(schunks.containsAll(write))
+		return;
+	    schunks.addAll(write);
+	    OutputStream fp;
+	    try {
+		fp = sstore("seg-%x", id);
+	    } catch(IOException e) {
+		throw(new StreamMessage.IOError(e));
+	    }
+	    try(StreamMessage out = new StreamMessage(fp)) {
+		out.adduint8(2);
+		ZMessage z = new ZMessage(out);
+		z.addint64(id);
+		z.addint32(schunks.size());
+		for(Coord cc : schunks)
+		    z.addcoord(cc);
+		z.finish();
 	    }
 	}
 
 	private void include(long id, Coord sc) {
+	    place(id, sc);
+	    changed(sc);
+	}
+
+	/* Puts the grid into the segment, for which the write lock is
+	 * needed; changed() then invalidates what was derived from the
+	 * grid's old contents, which only needs a read lock. */
+	private void place(long id, Coord sc) {
 	    map.put(sc, id);
+	    synchronized(this) {
+		dchunks.add(chunk(sc));
+	    }
+	    ByCoord bc;
+	    synchronized(ccache) {
+		bc = ccache.get(sc);
+	    }
+	    if((bc != null) && (bc.cur == null))
+		bc.cur = grid0(id);
+	}
+
+	private void changed(Coord sc) {
+	    for(int y = -1; y <= 1; y++) {
+		for(int x = -1; x <= 1; x++) {
+		    Long nid = ((x == 0) && (y == 0)) ? null : map.get(sc.add(x, y));
+		    if(nid != null)
+			imgcache.inval(nid);
+		}
+	    }
 	    int zl = ZoomGrid.inval(MapFile.this, this.id, sc);
 	    synchronized(zcache) {
 		/* XXX? Not sure how nice it is to iterate through the
@@ -1251,18 +1433,33 @@ public class MapFile {
 		 * only iterate all the levels? */
 		for(Map.Entry<ZoomCoord, ByZCoord> ent : zcache.entrySet()) {
 		    ZoomCoord zc = ent.getKey();
+		    /* Levels that were stored are left showing until
+		     * the pyramid builder has redone them. */
+		    if(zc.lvl <= zl)
+			continue;
 		    if((zc.c.x == (sc.x & ~((1 << zc.lvl) - 1))) && (zc.c.y == (sc.y & ~((1 << zc.lvl) - 1)))) {
 			ByZCoord zg = ent.getValue();
 			zg.loading = loadzgrid(zc);
 		    }
 		}
 	    }
-	    ByCoord bc;
-	    synchronized(ccache) {
-		bc = ccache.get(sc);
+	    pyramid.dirty(this, sc, zl);
+	}
+
+	private void rebuilt(ZoomCoord zc, ZoomGrid grid) {
+	    synchronized(zcache) {
+		ByZCoord zg = zcache.get(zc);
+		if(zg != null)
+		    zg.set(grid);
+	    }
+	}
+
+	private void rebuildfailed(ZoomCoord zc) {
+	    synchronized(zcache) {
+		ByZCoord zg = zcache.get(zc);
+		if(zg != null)
+		    zg.loading = loadzgrid(zc);
 	    }
-	    if((bc != null) && (bc.cur == null))
-		bc.cur = grid0(id);
 	}
 
 	private void include(Grid grid, Coord sc) {
@@ -1276,6 +1473,310 @@ public class MapFile {
 	}
     }
 
+    /* Zoom levels above grids changed by update() are rebuilt here in
+     * the background instead of on demand when next drawn. Dirty zoom
+     * grids are taken a level at a time from the bottom up, each level
+     * spread over the pool, and a rebuilt zoom grid replaces the one
+     * being shown only once it has been saved. Zoom grids requested
+     * while pending here wait for their build rather than being built
+     * again on demand. */
+    private class Pyramid {
+	private final Defer pool = new Defer(Thread.currentThread().getThreadGroup());
+	private final List<Map<Segment, Set<Coord>>> dirty = new ArrayList<>();
+	private final Map<Segment, Set<ZoomCoord>> building = new HashMap<>();
+	private int running = 0;
+
+	private class Build implements Defer.Callable<Void> {
+	    final Segment seg;
+	    final ZoomCoord zc;
+
+	    Build(Segment seg, ZoomCoord zc) {
+		this.seg = seg;
+		this.zc = zc;
+	    }
+
+	    public Void call() {
+		ZoomGrid grid = null;
+		boolean built = false;
+		try {
+		    lock.readLock().lock();
+		    try {
+			if(knownsegs.contains(seg.id)) {
+			    grid = ZoomGrid.from(MapFile.this, seg, zc.lvl, zc.c);
+			    built = true;
+			}
+		    } finally {
+			lock.readLock().unlock();
+		    }
+		} catch(RuntimeException e) {
+		    warn(e, "could not rebuild zoomgrid (%d, %d) in %x@%d: %s", zc.c.x, zc.c.y, seg.id, zc.lvl, e);
+		} finally {
+		    /* Hand it over and stop being pending in one step
+		     * with respect to Segment.grid(). */
+		    synchronized(seg.zcache) {
+			if(built)
+			    seg.rebuilt(zc, grid);
+			else
+			    seg.rebuildfailed(zc);
+			done(this);
+		    }
+		}
+		return(null);
+	    }
+
+	    public String toString() {
+		return(String.format("Rebuilding zoomgrid (%d, %d) in %x@%d", zc.c.x, zc.c.y, seg.id, zc.lvl));
+	    }
+	}
+
+	boolean pending(Segment seg, ZoomCoord zc) {
+	    synchronized(this) {
+		if((zc.lvl <= dirty.size()) && dirty.get(zc.lvl - 1).getOrDefault(seg, Collections.emptySet()).contains(zc.c))
+		    return(true);
+		return(building.getOrDefault(seg, Collections.emptySet()).contains(zc));
+	    }
+	}
+
+	void dirty(Segment seg, Coord sc, int maxlvl) {
+	    synchronized(this) {
+		for(int lvl = 1; lvl <= maxlvl; lvl++) {
+		    while(dirty.size() < lvl)
+			dirty.add(new HashMap<>());
+		    Coord zc = new Coord(sc.x & ~((1 << lvl) - 1), sc.y & ~((1 << lvl) - 1));
+		    dirty.get(lvl - 1).computeIfAbsent(seg, k -> new HashSet<>()).add(zc);
+		}
+		if(running == 0)
+		    next();
+	    }
+	}
+
+	private void next() {
+	    for(int i = 0; i < dirty.size(); i++) {
+		Map<Segment, Set<Coord>> lvl = dirty.get(i);
+		if(lvl.isEmpty())
+		    continue;
+		for(Map.Entry<Segment, Set<Coord>> ent : lvl.entrySet()) {
+		    for(Coord zc : ent.getValue()) {
+			Build b = new Build(ent.getKey(), new ZoomCoord(i + 1, zc));
+			building.computeIfAbsent(b.seg, k -> new HashSet<>()).add(b.zc);
+			running++;
+			pool.defer(b);
+		    }
+		}
+		lvl.clear();
+		return;
+	    }
+	}
+
+	private void done(Build b) {
+	    synchronized(this) {
+		Set<ZoomCoord> segb = building.get(b.seg);
+		segb.remove(b.zc);
+		if(segb.isEmpty())
+		    building.remove(b.seg);
+		if(--running == 0)
+		    next();
+	    }
+	}
+    }
+    private final Pyramid pyramid = new Pyramid();
+
+    /* Finished minimap images of grids and zoom grids, by overlay tag
+     * ("" for the grid itself), kept in memory and stored alongside
+     * the map data so that grids scrolled back into view need not be
+     * drawn again. An image is only used while its grid's mtime is
+     * the one it was drawn from, and a redrawn image replaces the
+     * stored one, so the stored images stay one per grid and tag.
+     * Since a grid's own image has its edges drawn from its
+     * neighbours, it is dropped whenever one of those changes.
+     *
+     * The stored images are listed in the "imgidx" record in the
+     * order they were last used, and the least recently used are
+     * cleared once there are more than DISKSIZE of them, which also
+     * takes care of those of merged-away segments. */
+    public class ImageCache {
+	public static final int MEMSIZE = 512;
+	public static final int DISKSIZE = 16384;
+	private Map<String, Boolean> disk = null;
+	private final Map<String, Pair<Long, BufferedImage>> mem = new LinkedHashMap<String, Pair<Long, BufferedImage>>(16, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry<String, Pair<Long, BufferedImage>> eldest) {
+		    return(size() > MEMSIZE);
+		}
+	    };
+
+	private String key(DataGrid grid, String tag) {
+	    if((grid == null) || (tag == null))
+		return(null);
+	    if(grid instanceof Grid)
+		return(String.format("img-%x-%s", ((Grid)grid).id, tag));
+	    if(grid instanceof ZoomGrid) {
+		ZoomGrid zg = (ZoomGrid)grid;
+		return(String.format("zimg-%x-%d-%d-%d-%s", zg.seg, zg.lvl, zg.sc.x, zg.sc.y, tag));
+	    }
+	    return(null);
+	}
+
+	private Map<String, Boolean> disk() {
+	    if(disk == null) {
+		disk = new LinkedHashMap<>(16, 0.75f, true);
+		try(StreamMessage data = new StreamMessage(sfetch("imgidx"))) {
+		    if(!data.eom() && (data.uint8() == 1)) {
+			for(int i = 0, n = data.int32(); i < n; i++)
+			    disk.put(data.string(), Boolean.TRUE);
+		    }
+		} catch(IOException e) {
+		} catch(Message.BinError e) {
+		    warn(e, "could not load map image index: %s", e);
+		}
+	    }
+	    return(disk);
+	}
+
+	private void clear(String key) {
+	    try {
+		sstore("%s", key).close();
+	    } catch(IOException e) {
+		warn(e, "could not clear map image %s: %s", key, e);
+	    }
+	}
+
+	private void touched() {
+	    synchronized(procmon) {
+		idirty = true;
+		process();
+	    }
+	}
+
+	void saveidx() {
+	    List<String> keys;
+	    synchronized(this) {
+		keys = new ArrayList<>(disk().keySet());
+	    }
+	    OutputStream fp;
+	    try {
+		fp = sstore("imgidx");
+	    } catch(IOException e) {
+		warn(e, "could not store map image index: %s", e);
+		return;
+	    }
+	    try(StreamMessage out = new StreamMessage(fp)) {
+		out.adduint8(1);
+		out.addint32(keys.size());
+		for(String key : keys)
+		    out.addstring(key);
+	    }
+	}
+
+	/* Drops the image of the given grid itself, for when one of
+	 * its neighbours has changed. */
+	public void inval(long id) {
+	    String key = String.format("img-%x-", id);
+	    synchronized(mem) {
+		mem.remove(key);
+	    }
+	    boolean stored;
+	    synchronized(this) {
+		stored = (disk().remove(key) != null);
+	    }
+	    if(stored) {
+		clear(key);
+		touched();
+	    }
+	}
+
+	/* Only what is held in memory, for use without deferring. */
+	public BufferedImage cached(DataGrid grid, String tag) {
+	    String key = key(grid, tag);
+	    if(key == null)
+		return(null);
+	    synchronized(mem) {
+		Pair<Long, BufferedImage> ent = mem.get(key);
+		if((ent != null) && (ent.a == grid.mtime))
+		    return(ent.b);
+	    }
+	    return(null);
+	}
+
+	public BufferedImage load(DataGrid grid, String tag) {
+	    BufferedImage ret = cached(grid, tag);
+	    if(ret != null)
+		return(ret);
+	    String key = key(grid, tag);
+	    if(key == null)
+		return(null);
+	    InputStream fp;
+	    try {
+		fp = sfetch("%s", key);
+	    } catch(IOException e) {
+		return(null);
+	    }
+	    try(StreamMessage data = new StreamMessage(fp)) {
+		if(data.eom())
+		    return(null);
+		int ver = data.uint8();
+		if(ver != 1)
+		    return(null);
+		if(data.int64() != grid.mtime)
+		    return(null);
+		ZMessage z = new ZMessage(data);
+		Coord sz = z.coord();
+		WritableRaster buf = PUtils.imgraster(sz);
+		z.bytes(PUtils.rasterbytes(buf));
+		ret = PUtils.rasterimg(buf);
+	    } catch(Message.BinError e) {
+		warn(e, "could not load cached map image %s: %s", key, e);
+		return(null);
+	    }
+	    synchronized(mem) {
+		mem.put(key, new Pair<>(grid.mtime, ret));
+	    }
+	    synchronized(this) {
+		disk().put(key, Boolean.TRUE);
+	    }
+	    touched();
+	    return(ret);
+	}
+
+	public void put(DataGrid grid, String tag, BufferedImage img) {
+	    String key = key(grid, tag);
+	    if(key == null)
+		return;
+	    synchronized(mem) {
+		mem.put(key, new Pair<>(grid.mtime, img));
+	    }
+	    if(!(img.getRaster().getDataBuffer() instanceof java.awt.image.DataBufferByte) || (img.getRaster().getNumBands() != 4))
+		return;
+	    OutputStream fp;
+	    try {
+		fp = sstore("%s", key);
+	    } catch(IOException e) {
+		warn(e, "could not store map image %s: %s", key, e);
+		return;
+	    }
+	    try(StreamMessage out = new StreamMessage(fp)) {
+		out.adduint8(1);
+		out.addint64(grid.mtime);
+		ZMessage z = new ZMessage(out);
+		z.addcoord(PUtils.imgsz(img));
+		z.addbytes(PUtils.rasterbytes(img.getRaster()));
+		z.finish();
+	    }
+	    List<String> evicted = new ArrayList<>();
+	    synchronized(this) {
+		Map<String, Boolean> disk = disk();
+		disk.put(key, Boolean.TRUE);
+		for(Iterator<String> i = disk.keySet().iterator(); (disk.size() > DISKSIZE) && i.hasNext();) {
+		    evicted.add(i.next());
+		    i.remove();
+		}
+	    }
+	    for(String old : evicted)
+		clear(old);
+	    touched();
+	}
+    }
+    public final ImageCache imgcache = new ImageCache();
+
     public static class View implements MapSource {
 	public final Segment seg;
 	private final Map<Coord, GridMap> grids = new HashMap<>();
@@ -1407,8 +1908,29 @@ public class MapFile {
 	}
     }
 
+    private static final int SEGCHUNK_L = 4;
+    /* The chunks listed in a stored segment header, so that they can
+     * be cleared along with it. */
+    private Collection<Coord> storedchunks(long id) {
+	Collection<Coord> ret = new ArrayList<>();
+	try(StreamMessage data = new StreamMessage(sfetch("seg-%x", id))) {
+	    if(!data.eom() && (data.uint8() == 2)) {
+		ZMessage z = new ZMessage(data);
+		z.int64();
+		for(int i = 0, no = z.int32(); i < no; i++)
+		    ret.add(z.coord());
+	    }
+	} catch(IOException e) {
+	} catch(Message.BinError e) {
+	    warn(e, "error when listing chunks of segment %x: %s", id, e);
+	}
+	return(ret);
+    }
     public final BackCache<Long, Segment> segments = new BackCache<>(5, id -> {
 	    checklock();
+	    Segment pending = unstored(id);
+	    if(pending != null)
+		return(pending);
 	    InputStream fp;
 	    try {
 		fp = sfetch("seg-%x", id);
@@ -1428,6 +1950,25 @@ public class MapFile {
 		    for(int i = 0, no = z.int32(); i < no; i++)
 			seg.map.put(z.coord(), z.int64());
 		    return(seg);
+		} else if(ver == 2) {
+		    Segment seg = new Segment(id);
+		    ZMessage z = new ZMessage(data);
+		    long storedid = z.int64();
+		    if(storedid != id)
+			throw(new Message.FormatError(String.format("Segment ID mismatch: expected %x, got %x", id, storedid)));
+		    boolean whole = false;
+		    for(int i = 0, no = z.int32(); i < no; i++) {
+			Coord cc = z.coord();
+			try {
+			    seg.loadchunk(cc);
+			    seg.schunks.add(cc);
+			} catch(IOException | Message.BinError e) {
+			    warn(e, "error when loading chunk %s of segment %x: %s", cc, id, e);
+			    whole = true;
+			}
+		    }
+		    seg.whole = whole;
+		    return(seg);
 		} else {
 		    throw(new Message.FormatError("Unknown segment data version: " + ver));
 		}
@@ -1438,6 +1979,12 @@ public class MapFile {
 	}, (id, seg) -> {
 	    checklock();
 	    if(seg == null) {
+		for(Coord cc : storedchunks(id)) {
+		    try(OutputStream fp = sstore("segc-%x-%d-%d", id, cc.x, cc.y)) {
+		    } catch(IOException e) {
+			throw(new StreamMessage.IOError(e));
+		    }
+		}
 		try(OutputStream fp = sstore("seg-%x", id)) {
 		} catch(IOException e) {
 		    throw(new StreamMessage.IOError(e));
@@ -1445,34 +1992,24 @@ public class MapFile {
 		if(knownsegs.remove(id))
 		    defersave();
 	    } else {
-		OutputStream fp;
-		try {
-		    fp = sstore("seg-%x", seg.id);
-		} catch(IOException e) {
-		    throw(new StreamMessage.IOError(e));
-		}
-		try(StreamMessage out = new StreamMessage(fp)) {
-		    out.adduint8(1);
-		    ZMessage z = new ZMessage(out);
-		    z.addint64(seg.id);
-		    z.addint32(seg.map.size());
-		    for(Map.Entry<Coord, Long> e : seg.map.entrySet())
-			z.addcoord(e.getKey()).addint64(e.getValue());
-		    z.finish();
-		}
+		seg.store();
 		if(knownsegs.add(id))
 		    defersave();
 	    }
 	});
 
-    private void merge(Segment dst, Segment src, Coord soff) {
+    /* Moves the grids of src into dst, returning where they were put
+     * in dst, for mergeinval() to finish. Needs the write lock. */
+    private Collection<Coord> mergeplace(Segment dst, Segment src, Coord soff) {
 	checklock();
+	Collection<Coord> placed = new ArrayList<>(src.map.size());
 	for(Map.Entry<Coord, Long> gi : src.map.entrySet()) {
 	    long id = gi.getValue();
 	    Coord sc = gi.getKey();
 	    Coord dc = sc.sub(soff);
-	    dst.include(id, dc);
+	    dst.place(id, dc);
 	    gridinfo.put(id, new GridInfo(id, dst.id, dc));
+	    placed.add(dc);
 	}
 	boolean mf = false;
 	for(Marker mark : markers) {
@@ -1487,18 +2024,71 @@ public class MapFile {
 	knownsegs.remove(src.id);
 	defersave();
 	synchronized(procmon) {
-	    dirty.add(dst);
-	    process();
+	    dirty.remove(src);
+	}
+	return(placed);
+    }
+
+    private void mergeinval(Segment dst, Collection<Coord> placed) {
+	checklock();
+	for(Coord dc : placed)
+	    dst.changed(dc);
+    }
+
+    private void merge(Segment dst, Segment src, Coord soff) {
+	mergeinval(dst, mergeplace(dst, src, soff));
+	segdirty(dst);
+    }
+
+    /* Merging a large segment means invalidating the stored zoom
+     * levels and images over all of it, so only moving its grids
+     * over is done under the write lock, leaving the map drawable
+     * during the rest. The merged segment is then stored right away,
+     * before the merged-away one is removed. */
+    private void merge(long aid, long bid, Coord ab) {
+	Segment src, dst;
+	Collection<Coord> placed;
+	lock.writeLock().lock();
+	try {
+	    Segment a = segments.get(aid), b = segments.get(bid);
+	    if((a == null) || (b == null) || (a == b)) {
+		/* One was merged away earlier in the same update; the
+		 * next update will find the rest. */
+		return;
+	    }
+	    Coord soff;
+	    if(a.map.size() > b.map.size()) {
+		src = b; dst = a;
+		soff = ab;
+	    } else {
+		src = a; dst = b;
+		soff = ab.inv();
+	    }
+	    if(debug) Debug.log.printf("mapfile: merging segment %x (%d) into %x (%d) at %s\n", src.id, src.map.size(), dst.id, dst.map.size(), soff);
+	    placed = mergeplace(dst, src, soff);
+	} finally {
+	    lock.writeLock().unlock();
+	}
+	lock.readLock().lock();
+	try {
+	    mergeinval(dst, placed);
+	    if(knownsegs.contains(dst.id))
+		dst.store();
+	    else
+		segdirty(dst);
+	} finally {
+	    lock.readLock().unlock();
 	}
+	locked(() -> segments.remove(src.id), lock.writeLock()).run();
     }
 
     public void update(MCache map, Collection<MCache.Grid> grids) {
+	long mseg = -1;
+	Collection<Pair<Long, Coord>> merge = null;
 	lock.writeLock().lock();
 	try {
-	    long mseg = -1;
 	    Coord moff = null;
 	    Collection<MCache.Grid> missing = new ArrayList<>(grids.size());
-	    Collection<Pair<Long, Coord>> merge = null;
 	    for(MCache.Grid g : grids) {
 		GridInfo info = gridinfo.get(g.id);
 		if(info == null) {
@@ -1547,14 +2137,14 @@ public class MapFile {
 		if(mseg == -1) {
 		    seg = new Segment(rnd.nextLong());
 		    moff = Coord.z;
+		    /* Only its writing is delayed; it must be found by
+		     * the next update already. */
+		    segments.cache(seg.id, seg);
 		    if(debug) Debug.log.printf("mapfile: creating new segment %x\n", seg.id);
 		} else {
 		    seg = segments.get(mseg);
 		}
-		synchronized(procmon) {
-		    dirty.add(seg);
-		    process();
-		}
+		segdirty(seg);
 		for(MCache.Grid g : missing) {
 		    Grid sg = Grid.from(map, g);
 		    Coord sc = g.gc.add(moff);
@@ -1563,26 +2153,13 @@ public class MapFile {
 		    gridinfo.put(g.id, new GridInfo(g.id, seg.id, sc));
 		}
 	    }
-	    if(merge != null) {
-		for(Pair<Long, Coord> mel : merge) {
-		    Segment a = segments.get(mseg);
-		    Segment b = segments.get(mel.a);
-		    Coord ab = mel.b;
-		    Segment src, dst; Coord soff;
-		    if(a.map.size() > b.map.size()) {
-			src = b; dst = a;
-			soff = ab;
-		    } else {
-			src = a; dst = b;
-			soff = ab.inv();
-		    }
-		    if(debug) Debug.log.printf("mapfile: merging segment %x (%d) into %x (%d) at %s\n", src.id, src.map.size(), dst.id, dst.map.size(), soff);
-		    merge(dst, src, soff);
-		}
-	    }
 	} finally {
 	    lock.writeLock().unlock();
 	}
+	if(merge != null) {
+	    for(Pair<Long, Coord> mel : merge)
+		merge(mseg, mel.a, mel.b);
+	}
 	if(debug) Debug.log.printf("mapfile: update completed\n");
     }
 
@@ -1967,7 +2544,10 @@ public class MapFile {
 	Collection<MCache.Grid> grids = new ArrayList<>();
 	for(Coord off : inout) {
 	    Coord gc = cgc.add(off);
-	    grids.add(map.getgrid(gc));
+	    MCache.Grid g = map.getgrid(gc);
+	    if(g.provisional)
+		throw(new Loading());
+	    grids.add(g);
 	}
 	if(!grids.isEmpty()) {
 	    synchronized(procmon) {
@@ -54,21 +54,21 @@ public interface MapSource {
     public static BufferedImage drawmap(MapSource m, Area a) {
 	Coord sz = a.sz();
 	BufferedImage[] texes = new BufferedImage[256];
-	BufferedImage buf = TexI.mkbuf(sz);
+	int[][] texpx = new int[256][];
+	int[] buf = new int[sz.x * sz.y];
 	Coord c = new Coord();
 	for(c.y = 0; c.y < sz.y; c.y++) {
 	    for(c.x = 0; c.x < sz.x; c.x++) {
 		int t = m.gettile(a.ul.add(c));
-		if(t < 0) {
-		    buf.setRGB(c.x, c.y, 0);
+		if(t < 0)
 		    continue;
-		}
 		BufferedImage tex = tileimg(m, texes, t);
-		int rgb = 0;
-		if(tex != null)
-		    rgb = tex.getRGB(Utils.floormod(c.x + a.ul.x, tex.getWidth()),
-				     Utils.floormod(c.y + a.ul.y, tex.getHeight()));
-		buf.setRGB(c.x, c.y, rgb);
+		if(tex != null) {
+		    if(texpx[t] == null)
+			texpx[t] = PUtils.argb(tex);
+		    int w = tex.getWidth();
+		    buf[c.x + (c.y * sz.x)] = texpx[t][Utils.floormod(c.x + a.ul.x, w) + (Utils.floormod(c.y + a.ul.y, tex.getHeight()) * w)];
+		}
 	    }
 	}
 	for(c.y = 1; c.y < sz.y - 1; c.y++) {
@@ -82,8 +82,8 @@ public interface MapSource {
 			if(haven.resutil.Ridges.brokenp(m, a.ul.add(c))) {
 			    for(int y = c.y - 1; y <= c.y + 1; y++) {
 				for(int x = c.x - 1; x <= c.x + 1; x++) {
-				    Color cc = new Color(buf.getRGB(x, y));
-				    buf.setRGB(x, y, Utils.blendcol(cc, Color.BLACK, ((x == c.x) && (y == c.y))?1:0.1).getRGB());
+				    Color cc = new Color(buf[x + (y * sz.x)]);
+				    buf[x + (y * sz.x)] = Utils.blendcol(cc, Color.BLACK, ((x == c.x) && (y == c.y))?1:0.1).getRGB();
 				}
 			    }
 			}
@@ -102,9 +102,13 @@ public interface MapSource {
 		   (m.gettile(a.ul.add(c).add( 1, 0)) > t) ||
 		   (m.gettile(a.ul.add(c).add(0, -1)) > t) ||
 		   (m.gettile(a.ul.add(c).add(0,  1)) > t))
-		    buf.setRGB(c.x, c.y, Color.BLACK.getRGB());
+		    buf[c.x + (c.y * sz.x)] = Color.BLACK.getRGB();
 	    }
 	}
-	return(buf);
+	BufferedImage ret = TexI.mkbuf(sz);
+	byte[] px = PUtils.rasterbytes(ret.getRaster());
+	for(int i = 0; i < buf.length; i++)
+	    PUtils.putargb(px, i, buf[i]);
+	return(ret);
     }
 }
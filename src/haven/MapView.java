@@ -1768,6 +1768,25 @@ public class MapView extends PView implements DTarget, Console.Directory, PFList
     }
 
     private Loading camload = null, lastload = null;
+    /* Without a player to follow, the camera focus is moved by the
+     * server, and its velocity is taken from how it has moved over
+     * recent frames. */
+    private Coord2d lastcc = null, ccv = Coord2d.z;
+    private double lastcct;
+    private void prefetchcam() {
+	double now = Utils.rtime();
+	if(lastcc != null) {
+	    double dt = now - lastcct;
+	    if(dt <= 0)
+		return;
+	    Coord2d iv = cc.sub(lastcc).div(dt);
+	    ccv = (iv.abs() > 1000) ? Coord2d.z : ccv.add(iv.sub(ccv).mul(Math.min(dt * 4, 1.0)));
+	}
+	lastcc = cc;
+	lastcct = now;
+	glob.map.prefetch(cc, ccv, MCache.PREFETCH_AHEAD, MCache.cutsz.x * (view + 1));
+    }
+
     public void draw(GOut g) {
 	Loader.Future<Plob> placing = this.placing;
 	if((placing != null) && placing.done())
@@ -1786,6 +1805,11 @@ public class MapView extends PView implements DTarget, Console.Directory, PFList
 	    partydraw(g);
 	    glob.map.reqarea(cc.floor(tilesz).sub(MCache.cutsz.mul(view + 1)),
 			     cc.floor(tilesz).add(MCache.cutsz.mul(view + 1)));
+	    Gob pl = player();
+	    if(pl != null)
+		glob.map.prefetch(pl, MCache.cutsz.x * (view + 1));
+	    else
+		prefetchcam();
 	} catch(Loading e) {
 	    e.boostprio(6);
 	    lastload = e;
@@ -1885,6 +1909,10 @@ public class MapView extends PView implements DTarget, Console.Directory, PFList
 	    camload = e;
 	}
 	basic(Camera.class, camera);
+	Gob pl = player();
+	glob.oc.tickfocus = (pl != null) ? pl.rc : cc;
+	Matrix4f vm = camera.view.fin(Matrix4f.id);
+	glob.map.viewhint(glob.oc.tickfocus, Coord2d.of(-vm.get(0, 2), vm.get(1, 2)), view);
 	amblight();
 	updsmap(amblight);
 	updweather();
@@ -213,6 +213,32 @@ public abstract class Message {
 	}
     }
     public void bytes(byte[] b) {bytes(b, 0, b.length);}
+
+    /* Bulk decoders, reading runs of values straight out of the
+     * buffered bytes rather than one call per value. */
+    public void uint16s(short[] b, int off, int n) {
+	while(n > 0) {
+	    rensure(2);
+	    int c = Math.min(n, (rt - rh) / 2);
+	    java.nio.ByteBuffer.wrap(rbuf, rh, c * 2).order(java.nio.ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(b, off, c);
+	    rh += c * 2;
+	    off += c;
+	    n -= c;
+	}
+    }
+    public void uint16s(short[] b) {uint16s(b, 0, b.length);}
+
+    public void float32s(float[] b, int off, int n) {
+	while(n > 0) {
+	    rensure(4);
+	    int c = Math.min(n, (rt - rh) / 4);
+	    java.nio.ByteBuffer.wrap(rbuf, rh, c * 4).order(java.nio.ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(b, off, c);
+	    rh += c * 4;
+	    off += c;
+	    n -= c;
+	}
+    }
+    public void float32s(float[] b) {float32s(b, 0, b.length);}
     public Coord coord() {
 	return(new Coord(int32(), int32()));
     }
@@ -462,13 +462,18 @@ public class MiniMap extends Widget {
 	    mapext = Area.sized(sc.mul(cmaps.mul(1 << lvl)), cmaps.mul(1 << lvl));
 	}
 
+	/* Images are looked up in the map file's image cache by tag
+	 * first, and only drawn when not found there. A null tag
+	 * draws every time. */
 	class CachedImage {
-	    final Function<DataGrid, Defer.Future<Tex>> src;
+	    final String tag;
+	    final Function<DataGrid, Defer.Callable<BufferedImage>> src;
 	    DataGrid cgrid;
 	    Defer.Future<Tex> next;
 	    Tex img;
 
-	    CachedImage(Function<DataGrid, Defer.Future<Tex>> src) {
+	    CachedImage(String tag, Function<DataGrid, Defer.Callable<BufferedImage>> src) {
+		this.tag = tag;
 		this.src = src;
 	    }
 
@@ -477,7 +482,13 @@ public class MiniMap extends Widget {
 		if(grid != cgrid || !valid()) {
 		    if(next != null)
 			next.cancel();
+		    BufferedImage hit = file.imgcache.cached(grid, tag);
+		    if(hit != null) {
+			img = new TexI(hit);
+			next = null;
+		    } else {
 			next = getNext(grid);
+		    }
 		    cgrid = grid;
 		}
 		if(next != null) {
@@ -489,7 +500,15 @@ public class MiniMap extends Widget {
 	    }
 
 		protected Defer.Future<Tex> getNext(DataGrid grid) {
-			return src.apply(grid);
+		    Defer.Callable<BufferedImage> draw = src.apply(grid);
+		    return(Defer.later(() -> {
+				BufferedImage ret = file.imgcache.load(grid, tag);
+				if(ret == null) {
+				    ret = draw.call();
+				    file.imgcache.put(grid, tag, ret);
+				}
+				return(new TexI(ret));
+			    }));
 		}
 
 		protected boolean valid() {return true;}
@@ -497,8 +516,8 @@ public class MiniMap extends Widget {
 
 		class CachedTileOverlay extends MiniMap.DisplayGrid.CachedImage {
 			private long seq = 0;
-			CachedTileOverlay(Function<MapFile.DataGrid, Defer.Future<Tex>> src) {
-				super(src);
+			CachedTileOverlay(Function<MapFile.DataGrid, Defer.Callable<BufferedImage>> src) {
+				super(null, src);
 			}
 
 			@Override
@@ -516,14 +535,14 @@ public class MiniMap extends Widget {
 	private CachedImage img_c;
 	public Tex img() {
 	    if(img_c == null) {
-		img_c = new CachedImage(grid -> {
+		img_c = new CachedImage("", grid -> {
 			if(grid instanceof MapFile.ZoomGrid) {
-			    return(Defer.later(() -> new TexI(grid.render(sc.mul(cmaps)))));
+			    return(() -> grid.render(sc.mul(cmaps)));
 			} else {
-			    return(Defer.later(new Defer.Callable<Tex>() {
+			    return(new Defer.Callable<BufferedImage>() {
 				    MapFile.View view = new MapFile.View(seg);
 
-				    public TexI call() {
+				    public BufferedImage call() {
 					try(Locked lk = new Locked(file.lock.readLock())) {
 					    for(int y = -1; y <= 1; y++) {
 						for(int x = -1; x <= 1; x++) {
@@ -531,10 +550,10 @@ public class MiniMap extends Widget {
 						}
 					    }
 					    view.fin();
-					    return(new TexI(MapSource.drawmap(view, Area.sized(sc.mul(cmaps), cmaps))));
+					    return(MapSource.drawmap(view, Area.sized(sc.mul(cmaps), cmaps)));
 					}
 				    }
-				}));
+				});
 			}
 		});
 	    }
@@ -546,7 +565,7 @@ public class MiniMap extends Widget {
 	    CachedImage ret;
 	    synchronized(olimg_c) {
 		if((ret = olimg_c.get(tag)) == null)
-		    olimg_c.put(tag, ret = new CachedImage(grid -> Defer.later(() -> new TexI(grid.olrender(sc.mul(cmaps), tag)))));
+		    olimg_c.put(tag, ret = new CachedImage(tag, grid -> () -> grid.olrender(sc.mul(cmaps), tag)));
 	    }
 	    return(ret.get());
 	}
@@ -554,7 +573,7 @@ public class MiniMap extends Widget {
 		CachedImage ret;
 		synchronized(olimg_c) {
 			if((ret = olimg_c.get(TileHighlight.TAG)) == null)
-				olimg_c.put(TileHighlight.TAG, ret = new CachedTileOverlay(grid -> Defer.later(() -> new TexI(TileHighlight.olrender(grid)))));
+				olimg_c.put(TileHighlight.TAG, ret = new CachedTileOverlay(grid -> () -> TileHighlight.olrender(grid)));
 		}
 		return(ret.get());
 	}
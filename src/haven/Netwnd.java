@@ -0,0 +1,93 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven;
+
+import java.util.*;
+
+/* Live view of Connection.statreport(), refreshed once a second, with
+ * the packet and byte rates since the previous refresh. */
+public class Netwnd extends Window {
+    public static final Text.Foundry fnd = new Text.Foundry(Text.mono, 11, java.awt.Color.WHITE).aa(true);
+    private final Connection conn;
+    private List<Text> lines = Collections.emptyList();
+    private long lrxp, lrxb, ltxp, ltxb;
+    private double last = 0;
+
+    public Netwnd(Connection conn) {
+	super(UI.scale(new Coord(560, 200)), "Network statistics", true);
+	this.conn = conn;
+    }
+
+    private void update(double now) {
+	Connection.Stats st = conn.stats;
+	long rxp = st.total(st.rxpkts), rxb = st.total(st.rxbytes), txp = st.total(st.txpkts), txb = st.total(st.txbytes);
+	double dt = now - last;
+	List<Text> buf = new ArrayList<>();
+	if(last > 0) {
+	    buf.add(fnd.render(String.format("rate: in %.1f pkts/s, %.1f kB/s; out %.1f pkts/s, %.1f kB/s",
+					     (rxp - lrxp) / dt, (rxb - lrxb) / dt / 1000, (txp - ltxp) / dt, (txb - ltxb) / dt / 1000)));
+	}
+	for(String ln : conn.statreport())
+	    buf.add(fnd.render(ln));
+	for(Text t : lines)
+	    t.dispose();
+	lines = buf;
+	lrxp = rxp; lrxb = rxb; ltxp = txp; ltxb = txb;
+	last = now;
+	int w = 0, h = 0;
+	for(Text t : lines) {
+	    w = Math.max(w, t.sz().x);
+	    h += t.sz().y;
+	}
+	resize(new Coord(Math.max(w, UI.scale(200)) + UI.scale(20), h + UI.scale(20)));
+    }
+
+    public void tick(double dt) {
+	super.tick(dt);
+	double now = Utils.rtime();
+	if(now - last >= 1.0)
+	    update(now);
+    }
+
+    public void cdraw(GOut g) {
+	Coord c = UI.scale(new Coord(10, 10));
+	for(Text t : lines) {
+	    g.image(t.tex(), c);
+	    c = c.add(0, t.sz().y);
+	}
+    }
+
+    public void reqclose() {
+	ui.destroy(this);
+    }
+
+    public void dispose() {
+	for(Text t : lines)
+	    t.dispose();
+	super.dispose();
+    }
+}
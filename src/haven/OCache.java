@@ -28,6 +28,7 @@ package haven;
 
 import java.util.*;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.lang.annotation.*;
 import java.lang.reflect.*;
 import haven.render.*;
@@ -85,13 +86,132 @@ public class OCache implements Iterable<Gob> {
 	cbs.remove(cb);
     }
 
+    /* Uniform grid of the objects' positions, one cell per map cut,
+     * so that spatial queries only need to look at the cells they
+     * overlap rather than at every object. It has its own lock,
+     * which is never held while calling out, since Gob.move updates
+     * it with the Gob itself locked. */
+    private static final Coord2d cellsz = MCache.tilesz.mul(MCache.cutsz.x, MCache.cutsz.y);
+    private final Map<Coord, Collection<Gob>> cells = new HashMap<>();
+
+    private static Coord cellof(Coord2d c) {
+	return(c.floor(cellsz));
+    }
+
+    private void index(Gob ob) {
+	synchronized(cells) {
+	    if(ob.ocell != null)
+		return;
+	    ob.ocell = cellof(ob.rc);
+	    cells.computeIfAbsent(ob.ocell, k -> new ArrayList<>(4)).add(ob);
+	}
+    }
+
+    private void unindex(Gob ob) {
+	synchronized(cells) {
+	    if(ob.ocell == null)
+		return;
+	    Collection<Gob> cell = cells.get(ob.ocell);
+	    if((cell != null) && cell.remove(ob) && cell.isEmpty())
+		cells.remove(ob.ocell);
+	    ob.ocell = null;
+	}
+    }
+
+    /* Called by Gob.move */
+    void moved(Gob ob) {
+	synchronized(cells) {
+	    if(ob.ocell == null)
+		return;
+	    Coord nc = cellof(ob.rc);
+	    if(nc.equals(ob.ocell))
+		return;
+	    unindex(ob);
+	    index(ob);
+	}
+    }
+
+    private void cellsin(Coord ul, Coord br, Collection<Gob> buf) {
+	synchronized(cells) {
+	    for(int y = ul.y; y <= br.y; y++) {
+		for(int x = ul.x; x <= br.x; x++) {
+		    Collection<Gob> cell = cells.get(Coord.of(x, y));
+		    if(cell != null)
+			buf.addAll(cell);
+		}
+	    }
+	}
+    }
+
+    public List<Gob> within(Coord2d c, double r) {
+	List<Gob> ret = new ArrayList<>();
+	cellsin(cellof(c.sub(r, r)), cellof(c.add(r, r)), ret);
+	for(Iterator<Gob> i = ret.iterator(); i.hasNext();) {
+	    if(i.next().rc.dist(c) > r)
+		i.remove();
+	}
+	return(ret);
+    }
+
+    /* The area is in world coordinates, as per Area.contains. */
+    public List<Gob> inArea(Area a) {
+	List<Gob> ret = new ArrayList<>();
+	if(!a.positive())
+	    return(ret);
+	cellsin(cellof(Coord2d.of(a.ul)), cellof(Coord2d.of(a.br)), ret);
+	for(Iterator<Gob> i = ret.iterator(); i.hasNext();) {
+	    if(!a.contains(i.next().rc.floor()))
+		i.remove();
+	}
+	return(ret);
+    }
+
+    /* Searches rings of cells outwards from the starting point until
+     * no closer match can be found in any further ring, or the rings
+     * have passed every cell that held objects when the search began.
+     * Objects moving meanwhile may be missed. */
+    public Gob nearest(Predicate<? super Gob> pred, Coord2d from) {
+	Coord cc = cellof(from);
+	Gob best = null;
+	double bestd = Double.POSITIVE_INFINITY;
+	List<Gob> buf = new ArrayList<>();
+	int maxr = -1;
+	synchronized(cells) {
+	    for(Coord c : cells.keySet())
+		maxr = Math.max(maxr, Math.max(Math.abs(c.x - cc.x), Math.abs(c.y - cc.y)));
+	}
+	for(int r = 0; r <= maxr; r++) {
+	    if(((r - 1) * Math.min(cellsz.x, cellsz.y)) > bestd)
+		break;
+	    buf.clear();
+	    if(r == 0) {
+		cellsin(cc, cc, buf);
+	    } else {
+		cellsin(cc.add(-r, -r), cc.add(r, -r), buf);
+		cellsin(cc.add(-r, r), cc.add(r, r), buf);
+		cellsin(cc.add(-r, -r + 1), cc.add(-r, r - 1), buf);
+		cellsin(cc.add(r, -r + 1), cc.add(r, r - 1), buf);
+	    }
+	    for(Gob ob : buf) {
+		double d = ob.rc.dist(from);
+		if((d < bestd) && pred.test(ob)) {
+		    best = ob;
+		    bestd = d;
+		}
+	    }
+	}
+	return(best);
+    }
+
     public void add(Gob ob) {
 	synchronized(ob) {
 	    Collection<ChangeCallback> cbs;
 	    synchronized(this) {
 		cbs = new ArrayList<>(this.cbs);
 		objs.put(ob.id, ob);
+		snap = null;
 	    }
+	    index(ob);
 	    for(ChangeCallback cb : cbs)
 		cb.added(ob);
 	}
@@ -104,9 +224,12 @@ public class OCache implements Iterable<Gob> {
 	    old = objs.remove(ob.id, ob);
 	    if((old != null) && (old != ob))
 		throw(new RuntimeException(String.format("object %d removed wrong object", ob.id)));
+	    if(old != null)
+		snap = null;
 	    cbs = new ArrayList<>(this.cbs);
 	}
 	if(old != null) {
+	    unindex(old);
 	    synchronized(old) {
 		old.removed();
 		for(ChangeCallback cb : cbs)
@@ -115,39 +238,96 @@ public class OCache implements Iterable<Gob> {
 	}
     }
 
-    public void ctick(double dt) {
-	ArrayList<Gob> copy = new ArrayList<Gob>();
-	synchronized(this) {
-	    for(Gob g : this)
-		copy.add(g);
+    /* Readers get an immutable array of the current objects, which is
+     * only rebuilt after a writer has invalidated it, so that the
+     * per-frame ticks neither copy the cache nor contend for its
+     * monitor with the network thread. */
+    private volatile Gob[] snap = null;
+
+    public Gob[] snapshot() {
+	Gob[] ret = snap;
+	if(ret == null) {
+	    synchronized(this) {
+		if((ret = snap) == null) {
+		    ArrayList<Gob> buf = new ArrayList<>(objs.size());
+		    buf.addAll(objs.values());
+		    for(Collection<Gob> gc : local)
+			buf.addAll(gc);
+		    snap = ret = buf.toArray(new Gob[0]);
+		}
+	    }
 	}
+	return(ret);
+    }
+
+    /* Objects away from the view focus are ticked only every second,
+     * fourth or eighth frame, staggered by ID and handed the time they
+     * skipped, so that the cost of a frame follows the scene around the
+     * player rather than everything the server has told us about. Moving
+     * and virtual objects, and ones whose pose is animating, are always
+     * ticked, so that animations don't stutter. */
+    public static final Config.Variable<Boolean> tickbudget = Config.Variable.propb("haven.tickbudget", true);
+    public static final double TICKNEAR = MCache.tilesz.x * 40;
+    public volatile Coord2d tickfocus = null;
+    private int tickframe = 0;
+
+    private static boolean animating(Gob g) {
+	Drawable d = g.getattr(Drawable.class);
+	if(d instanceof Composite)
+	    return(((Composite)d).comp.poses.animating());
+	if((d instanceof ResDrawable) && (((ResDrawable)d).spr instanceof SkelSprite))
+	    return(((SkelSprite)((ResDrawable)d).spr).animating());
+	return(false);
+    }
+
+    private static int tickdiv(Gob g, Coord2d fc) {
+	if((fc == null) || g.virtual || (g.rc == null) || (g.getattr(Moving.class) != null) || animating(g))
+	    return(1);
+	double d = g.rc.dist(fc);
+	if(d < TICKNEAR)
+	    return(1);
+	else if(d < TICKNEAR * 2)
+	    return(2);
+	else if(d < TICKNEAR * 4)
+	    return(4);
+	return(8);
+    }
+
+    public void ctick(double dt) {
+	Gob[] copy = snapshot();
+	int frame = tickframe++;
+	Coord2d fc = tickbudget.get() ? tickfocus : null;
 	Consumer<Gob> task = g -> {
 	    synchronized(g) {
-		g.ctick(dt);
+		g.tickacc += dt;
+		int div = tickdiv(g, fc);
+		if((div > 1) && (((frame + (int)g.id) & (div - 1)) != 0))
+		    return;
+		double adt = g.tickacc;
+		g.tickacc = 0;
+		g.ctick(adt);
 	    }
 	};
-	if(!Config.par.get())
-	    copy.forEach(task);
-	else
-	    copy.parallelStream().forEach(task);
+	if(!Config.par.get()) {
+	    for(Gob g : copy)
+		task.accept(g);
+	} else {
+	    Arrays.stream(copy).parallel().forEach(task);
+	}
     }
 
     public void gtick(Render g) {
-	ArrayList<Gob> copy = new ArrayList<Gob>();
-	synchronized(this) {
-	    for(Gob ob : this)
-		copy.add(ob);
-	}
+	Gob[] copy = snapshot();
 	if(!Config.par.get()) {
-	    copy.forEach(ob -> {
-		    synchronized(ob) {
-			ob.gtick(g);
-		    }
-		});
+	    for(Gob ob : copy) {
+		synchronized(ob) {
+		    ob.gtick(g);
+		}
+	    }
 	} else {
 	    Collection<Render> subs = new ArrayList<>();
 	    ThreadLocal<Render> subv = new ThreadLocal<>();
-	    copy.parallelStream().forEach(ob -> {
+	    Arrays.stream(copy).parallel().forEach(ob -> {
 		    Render sub = subv.get();
 		    if(sub == null) {
 			sub = g.env().render();
@@ -165,12 +345,8 @@ public class OCache implements Iterable<Gob> {
 	}
     }
 
-    @SuppressWarnings("unchecked")
     public Iterator<Gob> iterator() {
-	Collection<Iterator<Gob>> is = new LinkedList<Iterator<Gob>>();
-	for(Collection<Gob> gc : local)
-	    is.add(gc.iterator());
-	return(new I2<Gob>(objs.values().iterator(), new I2<Gob>(is)));
+	return(Arrays.asList(snapshot()).iterator());
     }
 
     public void ladd(Collection<Gob> gob) {
@@ -178,8 +354,10 @@ public class OCache implements Iterable<Gob> {
 	synchronized(this) {
 	    cbs = new ArrayList<>(this.cbs);
 	    local.add(gob);
+	    snap = null;
 	}
 	for(Gob g : gob) {
+	    index(g);
 	    synchronized(g) {
 		for(ChangeCallback cb : cbs)
 		    cb.added(g);
@@ -192,8 +370,10 @@ public class OCache implements Iterable<Gob> {
 	synchronized(this) {
 	    cbs = new ArrayList<>(this.cbs);
 	    local.remove(gob);
+	    snap = null;
 	}
 	for(Gob g : gob) {
+	    unindex(g);
 	    synchronized(g) {
 		for(ChangeCallback cb : cbs)
 		    cb.removed(g);
@@ -361,9 +541,93 @@ public class OCache implements Iterable<Gob> {
 	}
     }
 
+    /* Queue of pending attribute deltas for one object. A delta
+     * whose effect is entirely replaced by a later delta of the same
+     * type is dropped when the later one is queued, so that an object
+     * that has fallen behind doesn't replay every intermediate
+     * state on catching up. */
+    public static class DeltaQueue {
+	public static final java.util.concurrent.atomic.AtomicLong queued = new java.util.concurrent.atomic.AtomicLong();
+	public static final java.util.concurrent.atomic.AtomicLong coalesced = new java.util.concurrent.atomic.AtomicLong();
+	private final ArrayDeque<AttrDelta> q = new ArrayDeque<>();
+	private final AttrDelta[] last = new AttrDelta[128];
+	private AttrDelta cur = null;
+	private int size = 0;
+
+	private static boolean supersedes(AttrDelta o, AttrDelta n) {
+	    switch(n.type) {
+	    case OD_MOVE: case OD_HOMING: case OD_ZOFF:
+	    case OD_LUMIN: case OD_HEALTH: case OD_FOLLOW:
+		return(true);
+	    case OD_LINSTEP: {
+		/* A step only sets the end time if it carries one, and
+		 * a stop must take effect lest a following step be
+		 * applied to a movement that should have ended. */
+		if((o.rem() < 4) || (n.rem() < 4))
+		    return(false);
+		int ow = Utils.int32d(o.rbuf, o.rh), nw = Utils.int32d(n.rbuf, n.rh);
+		if(nw == -1)
+		    return(true);
+		if(ow == -1)
+		    return(false);
+		return(((nw & 0x80000000) != 0) || ((ow & 0x80000000) == 0));
+	    }
+	    default:
+		return(false);
+	    }
+	}
+
+	public void add(AttrDelta d) {
+	    queued.incrementAndGet();
+	    AttrDelta prev = last[d.type];
+	    if((prev != null) && (prev != cur) && supersedes(prev, d)) {
+		prev.superseded = true;
+		size--;
+		coalesced.incrementAndGet();
+	    }
+	    last[d.type] = d;
+	    if(d.type == OD_LINBEG)
+		last[OD_LINSTEP] = null;
+	    q.add(d);
+	    size++;
+	}
+
+	public void addAll(Collection<AttrDelta> ds) {
+	    for(AttrDelta d : ds)
+		add(d);
+	}
+
+	public AttrDelta peek() {
+	    AttrDelta d;
+	    while(((d = q.peek()) != null) && d.superseded)
+		q.poll();
+	    return(cur = d);
+	}
+
+	public AttrDelta poll() {
+	    AttrDelta d = peek();
+	    if(d != null) {
+		q.poll();
+		size--;
+		if(last[d.type] == d)
+		    last[d.type] = null;
+	    }
+	    cur = null;
+	    return(d);
+	}
+
+	public boolean isEmpty() {
+	    return(size == 0);
+	}
+
+	public int size() {
+	    return(size);
+	}
+    }
+
     public class GobInfo {
 	public final long id;
-	public final LinkedList<AttrDelta> pending = new LinkedList<>();
+	public final DeltaQueue pending = new DeltaQueue();
 	public int frame;
 	public boolean nremoved, added, gremoved, virtual;
 	public Gob gob;
@@ -400,6 +664,7 @@ public class OCache implements Iterable<Gob> {
 		    synchronized(gob) {
 			deltas.get(d.type).apply(gob, d.clone());
 		    }
+		    glob.sess.conn.stats.applylat.add(Utils.rtime() - d.recv);
 		    synchronized(this) {
 			if((pending.poll()) != d)
 			    throw(new RuntimeException());
@@ -436,6 +701,9 @@ public class OCache implements Iterable<Gob> {
 	}
     }
 
+    /* Deltas are received only from the connection thread, so one
+     * monitor suffices here; applying them to the objects happens
+     * on the loader, one task per object (see GobInfo.checkdirty). */
     private final Map<Long, GobInfo> netinfo = new HashMap<>();
 
     private GobInfo netremove(long id, int frame) {
@@ -478,6 +746,7 @@ public class OCache implements Iterable<Gob> {
 	public long id;
 	public final List<AttrDelta> attrs = new LinkedList<>();
 	public boolean rem = false;
+	public double recv = Utils.rtime();
 
 	public ObjDelta(int fl, long id, int frame) {
 	    this.fl = fl;
@@ -491,6 +760,7 @@ public class OCache implements Iterable<Gob> {
 	    this.frame = from.frame;
 	    this.initframe = from.initframe;
 	    this.rem = from.rem;
+	    this.recv = from.recv;
 	    for(AttrDelta attr : from.attrs)
 		attrs.add(attr.clone());
 	}
@@ -504,15 +774,25 @@ public class OCache implements Iterable<Gob> {
 
     public static class AttrDelta extends PMessage {
 	public boolean old;
+	public double recv;
+	boolean superseded;
 
 	public AttrDelta(ObjDelta od, int type, Message blob, int len) {
 	    super(type, blob, len);
 	    this.old = ((od.fl & 4) != 0);
+	    this.recv = od.recv;
+	}
+
+	public AttrDelta(ObjDelta od, int type, byte[] blob, int off, int len) {
+	    super(type, blob, off, len);
+	    this.old = ((od.fl & 4) != 0);
+	    this.recv = od.recv;
 	}
 
 	public AttrDelta(AttrDelta from) {
 	    super(from);
 	    this.old = from.old;
+	    this.recv = from.recv;
 	}
 
 	public AttrDelta clone() {
@@ -540,11 +820,8 @@ public class OCache implements Iterable<Gob> {
     }
 
 	public void gobAction(Consumer<Gob> action) {
-		synchronized (this) {
-			for (Gob g : this) {
-				action.accept(g);
-			}
-			local.forEach(gobs -> gobs.forEach(action));
+		for (Gob g : snapshot()) {
+			action.accept(g);
 		}
 	}
 }
@@ -55,6 +55,35 @@ public class PUtils {
 	return(byteraster(sz, 4));
     }
 
+    /* The backing bytes of a raster made by byteraster(), for filling
+     * whole images without a call per sample. */
+    public static byte[] rasterbytes(WritableRaster buf) {
+	return(((DataBufferByte)buf.getDataBuffer()).getData());
+    }
+
+    public static void putargb(byte[] px, int i, int argb) {
+	i *= 4;
+	px[i + 0] = (byte)(argb >>> 16);
+	px[i + 1] = (byte)(argb >>>  8);
+	px[i + 2] = (byte)(argb >>>  0);
+	px[i + 3] = (byte)(argb >>> 24);
+    }
+
+    /* Blends an overlay color into an RGBA pixel the way the map
+     * overlay renderers always have, red included. */
+    public static void olblend(byte[] px, int i, Color col) {
+	i *= 4;
+	int a = col.getAlpha(), na = 255 - a, g = px[i + 1] & 0xff;
+	px[i + 0] = (byte)(((col.getRed()   * a) + (g * na)) / 255);
+	px[i + 1] = (byte)(((col.getGreen() * a) + (g * na)) / 255);
+	px[i + 2] = (byte)(((col.getBlue()  * a) + ((px[i + 2] & 0xff) * na)) / 255);
+	px[i + 3] = (byte)Math.max(px[i + 3] & 0xff, a);
+    }
+
+    public static int[] argb(BufferedImage img) {
+	return(img.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth()));
+    }
+
     public static WritableRaster copy(Raster src) {
 	int w = src.getWidth(), h = src.getHeight(), b = src.getNumBands();
 	WritableRaster ret = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, w, h, b, null);
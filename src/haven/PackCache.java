@@ -0,0 +1,620 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven;
+
+import java.util.*;
+import java.util.zip.CRC32;
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+
+/* A ResCache keeping all its entries as records appended to a single
+ * file, for the map store, where HashDirCache would otherwise end up
+ * with one small file (and lock file) per grid. Records are read
+ * through memory-mapped windows of the pack. The index is saved
+ * alongside it, tagged with the pack length it covers, when the
+ * pack is opened or compacted and when the process exits; on open,
+ * only the records past that length are scanned, and the whole pack
+ * only if the saved index is missing or does not match. Rewritten
+ * entries leave dead records behind that are dropped by a compaction
+ * pass at open time once they make up enough of the file. Each
+ * record carries a CRC of its name and data, checked as it is read,
+ * so that records torn by a crash are dropped rather than used.
+ *
+ * Entries not yet in the pack are looked up in the backing cache,
+ * and copied into the pack when found, so that existing loose map
+ * files are migrated as they are used.
+ *
+ * Only one process can have the pack open, as held by a lock on a
+ * separate lock file, so that compaction can replace the pack
+ * without letting go of it. Any other client using
+ * the same map falls back to loose files, and holds a marker file
+ * locked for as long as it runs. While the marker exists, the
+ * process owning the pack also writes its entries as loose files,
+ * and takes whichever of the pack's and the loose copy of an entry
+ * is newer; the next owner to find the marker unlocked takes in the
+ * newer loose entries and removes it. */
+public class PackCache implements ResCache {
+    public static final Config.Variable<Boolean> enabled = Config.Variable.propb("haven.mappack", true);
+    private static final byte[] MAGIC = "HAVENPK2".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] IMAGIC = "HAVENPI1".getBytes(StandardCharsets.US_ASCII);
+    private static final int HLEN = 18;
+    private static final long WINDOW = 1L << 28, REMAP = 1L << 24;
+    private final Path path, marker, lockpath, idxpath;
+    private final HashDirCache back;
+    private final Map<String, Entry> index = new HashMap<>();
+    private final Set<String> absent = new HashSet<>();
+    private final List<MappedByteBuffer> windows = new ArrayList<>();
+    private FileChannel fp, lockfp;
+    private FileLock lock;
+    private long end, dead;
+    private volatile boolean mixed = false;
+    private double lastmcheck = 0;
+
+    private static class Entry {
+	final long off;
+	final int len;
+	final int hlen;
+	final long mtime;
+	final int crc;
+
+	Entry(long off, int len, int hlen, long mtime, int crc) {
+	    this.off = off;
+	    this.len = len;
+	    this.hlen = hlen;
+	    this.mtime = mtime;
+	    this.crc = crc;
+	}
+    }
+
+    private PackCache(HashDirCache back, String name) {
+	this.path = back.auxpath(name, "pack");
+	this.marker = back.auxpath(name, "loose");
+	this.lockpath = back.auxpath(name, "plock");
+	this.idxpath = back.auxpath(name, "pidx");
+	this.back = back;
+    }
+
+    private static final Map<Path, PackCache> open = new HashMap<>();
+    private static final Map<Path, FileChannel> markers = new HashMap<>();
+    /* Returns the pack for the given name alongside the given cache,
+     * or the cache itself if the pack cannot be used (such as when
+     * another client process already has it open). */
+    public static ResCache get(HashDirCache back, String name) {
+	if(!enabled.get())
+	    return(back);
+	Path path = back.auxpath(name, "pack");
+	Path marker = back.auxpath(name, "loose");
+	synchronized(open) {
+	    PackCache ret = open.get(path);
+	    if(ret == null) {
+		ret = new PackCache(back, name);
+		try {
+		    if(!ret.open()) {
+			Debug.log.printf("map pack %s in use by another process, using loose files\n", path);
+			holdmarker(marker);
+			return(back);
+		    }
+		} catch(IOException e) {
+		    new Warning(e, "could not open map pack " + path).issue();
+		    return(back);
+		}
+		if(open.isEmpty())
+		    Runtime.getRuntime().addShutdownHook(new HackThread(PackCache::saveall, "Map pack index saver"));
+		open.put(path, ret);
+	    }
+	    return(ret);
+	}
+    }
+
+    private static void saveall() {
+	Collection<PackCache> packs;
+	synchronized(open) {
+	    packs = new ArrayList<>(open.values());
+	}
+	for(PackCache pack : packs) {
+	    try {
+		pack.saveidx();
+	    } catch(IOException e) {
+		/* It is just rebuilt by scanning next time. */
+	    }
+	}
+    }
+
+    /* Tells the owner of the pack that loose entries are being
+     * written. The lock is kept until the process exits. */
+    private static void holdmarker(Path marker) {
+	if(markers.containsKey(marker))
+	    return;
+	try {
+	    while(true) {
+		FileChannel mf = Utils.ioretry(() -> FileChannel.open(marker, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE));
+		mf.lock(0, Long.MAX_VALUE, true);
+		/* The owner may have removed it while we were waiting
+		 * for the lock. */
+		if(Files.exists(marker)) {
+		    markers.put(marker, mf);
+		    return;
+		}
+		mf.close();
+	    }
+	} catch(IOException e) {
+	    new Warning(e, "could not mark loose map files " + marker).issue();
+	}
+    }
+
+    private boolean open() throws IOException {
+	lockfp = Utils.ioretry(() -> FileChannel.open(lockpath, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE));
+	try {
+	    if((lock = lockfp.tryLock()) == null) {
+		lockfp.close();
+		return(false);
+	    }
+	} catch(OverlappingFileLockException e) {
+	    lockfp.close();
+	    return(false);
+	}
+	try {
+	    fp = Utils.ioretry(() -> FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE));
+	    long from = loadidx() ? end : MAGIC.length;
+	    scan(from);
+	    if((dead > (16 << 20)) && (dead > (end / 4)))
+		compact();
+	    else if(end != from)
+		saveidx();
+	} catch(IOException e) {
+	    if(fp != null)
+		fp.close();
+	    lockfp.close();
+	    throw(e);
+	}
+	if(Files.exists(marker))
+	    reconcile();
+	return(true);
+    }
+
+    /* Sequential reader over the pack file, for rebuilding the index
+     * without mapping it (so that compaction can still replace it). */
+    private static class Scanner {
+	final FileChannel fp;
+	final ByteBuffer buf = ByteBuffer.allocate(65536);
+	long bpos = 0;
+
+	Scanner(FileChannel fp) {
+	    this.fp = fp;
+	    buf.limit(0);
+	}
+
+	ByteBuffer at(long pos, int n) throws IOException {
+	    if((pos < bpos) || (pos + n > bpos + buf.limit())) {
+		buf.clear();
+		if(n > buf.capacity())
+		    throw(new IOException("record header too long: " + n));
+		bpos = pos;
+		while(buf.position() < n) {
+		    if(fp.read(buf, pos + buf.position()) < 0)
+			break;
+		}
+		buf.flip();
+		if(buf.limit() < n)
+		    return(null);
+	    }
+	    buf.position((int)(pos - bpos));
+	    return(buf);
+	}
+    }
+
+    private static byte[] get(ByteBuffer b, int n) {
+	byte[] ret = new byte[n];
+	b.get(ret);
+	return(ret);
+    }
+
+    /* Scans the records from the given offset on, which is past the
+     * end of those covered by the saved index, if any. */
+    private void scan(long from) throws IOException {
+	long size = fp.size();
+	Scanner sc = new Scanner(fp);
+	ByteBuffer b;
+	if(size == 0) {
+	    fp.write(ByteBuffer.wrap(MAGIC), 0);
+	    end = MAGIC.length;
+	    return;
+	}
+	if(((b = sc.at(0, MAGIC.length)) == null) || !Arrays.equals(get(b, MAGIC.length), MAGIC))
+	    throw(new IOException("not a map pack: " + path));
+	long pos = from;
+	while(true) {
+	    if((b = sc.at(pos, HLEN)) == null)
+		break;
+	    int nlen = b.getShort() & 0xffff;
+	    int dlen = b.getInt();
+	    long mtime = b.getLong();
+	    int crc = b.getInt();
+	    int hlen = HLEN + nlen;
+	    /* A zero-filled tail left by a crash stops at the empty name. */
+	    if((nlen == 0) || (dlen < 0) || (pos + hlen + dlen > size) || ((b = sc.at(pos + HLEN, nlen)) == null))
+		break;
+	    String name = new String(get(b, nlen), StandardCharsets.UTF_8);
+	    Entry prev = index.put(name, new Entry(pos + hlen, dlen, hlen, mtime, crc));
+	    if(prev != null)
+		dead += prev.hlen + prev.len;
+	    pos += hlen + dlen;
+	}
+	if(pos < size) {
+	    /* A torn record from an interrupted write. */
+	    Debug.log.printf("map pack %s: truncating %d trailing bytes\n", path, size - pos);
+	    fp.truncate(pos);
+	}
+	end = pos;
+    }
+
+    /* Loads the saved index, if there is one matching the pack,
+     * setting the end and dead counts from it. */
+    private boolean loadidx() throws IOException {
+	byte[] raw;
+	try {
+	    raw = Files.readAllBytes(idxpath);
+	} catch(NoSuchFileException e) {
+	    return(false);
+	}
+	if(raw.length < IMAGIC.length + 24)
+	    return(false);
+	CRC32 ck = new CRC32();
+	ck.update(raw, 0, raw.length - 4);
+	ByteBuffer b = ByteBuffer.wrap(raw);
+	if(!Arrays.equals(get(b, IMAGIC.length), IMAGIC) || (b.getInt(raw.length - 4) != (int)ck.getValue()))
+	    return(false);
+	long iend = b.getLong(), idead = b.getLong();
+	int n = b.getInt();
+	if((iend < MAGIC.length) || (iend > fp.size()))
+	    return(false);
+	Map<String, Entry> nindex = new HashMap<>(n * 2);
+	String lname = null;
+	Entry last = null;
+	for(int i = 0; i < n; i++) {
+	    int nlen = b.getShort() & 0xffff;
+	    String name = new String(get(b, nlen), StandardCharsets.UTF_8);
+	    Entry ent = new Entry(b.getLong(), b.getInt(), HLEN + nlen, b.getLong(), b.getInt());
+	    if(ent.off + ent.len > iend)
+		return(false);
+	    nindex.put(name, ent);
+	    if((last == null) || (ent.off > last.off)) {
+		lname = name;
+		last = ent;
+	    }
+	}
+	if(last != null) {
+	    /* Check the last record against the pack, in case the pack
+	     * was replaced under an index left over from before. */
+	    ByteBuffer h = ByteBuffer.allocate(last.hlen);
+	    while(h.hasRemaining()) {
+		if(fp.read(h, last.off - last.hlen + h.position()) < 0)
+		    return(false);
+	    }
+	    h.flip();
+	    byte[] nm = lname.getBytes(StandardCharsets.UTF_8);
+	    if(((h.getShort() & 0xffff) != nm.length) || (h.getInt() != last.len) || (h.getLong() != last.mtime) ||
+	       (h.getInt() != last.crc) || !Arrays.equals(get(h, nm.length), nm))
+		return(false);
+	}
+	index.putAll(nindex);
+	end = iend;
+	dead = idead;
+	return(true);
+    }
+
+    private synchronized void saveidx() throws IOException {
+	ByteArrayOutputStream buf = new ByteArrayOutputStream(index.size() * 64);
+	DataOutputStream out = new DataOutputStream(buf);
+	out.write(IMAGIC);
+	out.writeLong(end);
+	out.writeLong(dead);
+	out.writeInt(index.size());
+	for(Map.Entry<String, Entry> e : index.entrySet()) {
+	    Entry ent = e.getValue();
+	    byte[] nm = e.getKey().getBytes(StandardCharsets.UTF_8);
+	    out.writeShort(nm.length);
+	    out.write(nm);
+	    out.writeLong(ent.off);
+	    out.writeInt(ent.len);
+	    out.writeLong(ent.mtime);
+	    out.writeInt(ent.crc);
+	}
+	CRC32 ck = new CRC32();
+	ck.update(buf.toByteArray());
+	out.writeInt((int)ck.getValue());
+	Path tmp = idxpath.resolveSibling(idxpath.getFileName() + ".new");
+	Files.write(tmp, buf.toByteArray());
+	Utils.ioretry(() -> Files.move(tmp, idxpath, StandardCopyOption.REPLACE_EXISTING));
+    }
+
+    private void compact() throws IOException {
+	Path tmp = path.resolveSibling(path.getFileName() + ".new");
+	List<Map.Entry<String, Entry>> live = new ArrayList<>(index.entrySet());
+	live.sort(Comparator.comparingLong(e -> e.getValue().off));
+	Map<String, Entry> nindex = new HashMap<>();
+	try(FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+	    out.write(ByteBuffer.wrap(MAGIC));
+	    long pos = MAGIC.length;
+	    for(Map.Entry<String, Entry> e : live) {
+		Entry ent = e.getValue();
+		long n = ent.hlen + ent.len, off = ent.off - ent.hlen;
+		while(n > 0) {
+		    long c = fp.transferTo(off, n, out);
+		    off += c; n -= c;
+		}
+		nindex.put(e.getKey(), new Entry(pos + ent.hlen, ent.len, ent.hlen, ent.mtime, ent.crc));
+		pos += ent.hlen + ent.len;
+	    }
+	    out.force(true);
+	}
+	Debug.log.printf("map pack %s: compacted %d to %d bytes\n", path, end, end - dead);
+	/* The lock file stays locked throughout, so no other process
+	 * can take the pack while it is being replaced. */
+	Files.deleteIfExists(idxpath);
+	fp.close();
+	Utils.ioretry(() -> Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING));
+	fp = Utils.ioretry(() -> FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE));
+	windows.clear();
+	index.clear();
+	index.putAll(nindex);
+	end -= dead;
+	dead = 0;
+	saveidx();
+    }
+
+    /* Called with the marker present. If no other process holds it,
+     * the loose entries written since are taken in and it is
+     * removed; otherwise, loose entries stay in play for the rest of
+     * this session. */
+    private void reconcile() throws IOException {
+	try(FileChannel mf = FileChannel.open(marker, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+	    FileLock ml;
+	    try {
+		ml = mf.tryLock();
+	    } catch(OverlappingFileLockException e) {
+		ml = null;
+	    }
+	    if(ml == null) {
+		mixed = true;
+		return;
+	    }
+	    int n = 0;
+	    for(String name : new ArrayList<>(index.keySet())) {
+		if(absorb(name, index.get(name)) != null)
+		    n++;
+	    }
+	    Debug.log.printf("map pack %s: took in %d newer loose entries\n", path, n);
+	    try {
+		Files.delete(marker);
+	    } catch(IOException e) {
+		/* Windows will not delete it while open; it is then
+		 * just checked again next time. */
+	    }
+	    ml.release();
+	} catch(NoSuchFileException e) {
+	}
+    }
+
+    private void ckmixed() {
+	if(mixed)
+	    return;
+	double now = Utils.rtime();
+	if(now - lastmcheck < 1.0)
+	    return;
+	lastmcheck = now;
+	if(Files.exists(marker)) {
+	    Debug.log.printf("map pack %s: another process is using loose files\n", path);
+	    mixed = true;
+	}
+    }
+
+    /* Copies the loose entry into the pack if it is newer than the
+     * given record, returning its data, or null if it isn't. */
+    private byte[] absorb(String name, Entry ent) throws IOException {
+	long lm = back.mtime(name);
+	if((lm < 0) || ((ent != null) && (lm <= ent.mtime)))
+	    return(null);
+	byte[] data;
+	try(InputStream fp = back.fetch(name)) {
+	    data = Utils.readall(fp);
+	} catch(FileNotFoundException e) {
+	    return(null);
+	}
+	synchronized(this) {
+	    if(index.get(name) == ent)
+		append(name, data, data.length, lm);
+	}
+	return(data);
+    }
+
+    /* Returns the record's data from the mapped window it lies in, or
+     * null if it straddles two windows or lies in the last one's
+     * unmapped growth, which is only mapped once it is large enough
+     * to be worth the new mapping. */
+    private ByteBuffer view(Entry ent) throws IOException {
+	int wi = (int)(ent.off / WINDOW);
+	long wo = wi * WINDOW;
+	if(ent.off + ent.len > wo + WINDOW)
+	    return(null);
+	while(windows.size() <= wi)
+	    windows.add(null);
+	MappedByteBuffer w = windows.get(wi);
+	if((w == null) || (ent.off + ent.len > wo + w.capacity())) {
+	    long len = Math.min(end - wo, WINDOW);
+	    if((w != null) && (len < WINDOW) && (len - w.capacity() < REMAP))
+		return(null);
+	    windows.set(wi, w = fp.map(FileChannel.MapMode.READ_ONLY, wo, len));
+	}
+	return(w.slice((int)(ent.off - wo), ent.len));
+    }
+
+    private static int crc(byte[] name, ByteBuffer data) {
+	CRC32 crc = new CRC32();
+	crc.update(name);
+	crc.update(data.duplicate());
+	return((int)crc.getValue());
+    }
+
+    private static class BufferStream extends InputStream {
+	private final ByteBuffer buf;
+
+	BufferStream(ByteBuffer buf) {this.buf = buf;}
+
+	public int read() {
+	    return(buf.hasRemaining() ? (buf.get() & 0xff) : -1);
+	}
+
+	public int read(byte[] b, int off, int len) {
+	    if(len == 0)
+		return(0);
+	    if(!buf.hasRemaining())
+		return(-1);
+	    len = Math.min(len, buf.remaining());
+	    buf.get(b, off, len);
+	    return(len);
+	}
+
+	public long skip(long n) {
+	    n = Math.max(Math.min(n, buf.remaining()), 0);
+	    buf.position(buf.position() + (int)n);
+	    return(n);
+	}
+
+	public int available() {
+	    return(buf.remaining());
+	}
+    }
+
+    private void append(String name, byte[] data, int len, long mtime) throws IOException {
+	byte[] nm = name.getBytes(StandardCharsets.UTF_8);
+	if((nm.length == 0) || (nm.length > 0xffff))
+	    throw(new IOException("bad name for map pack: " + name));
+	int crc = crc(nm, ByteBuffer.wrap(data, 0, len));
+	ByteBuffer buf = ByteBuffer.allocate(HLEN + nm.length + len);
+	buf.putShort((short)nm.length).putInt(len).putLong(mtime).putInt(crc).put(nm).put(data, 0, len).flip();
+	synchronized(this) {
+	    long pos = end;
+	    while(buf.hasRemaining())
+		pos += fp.write(buf, pos);
+	    Entry prev = index.put(name, new Entry(end + HLEN + nm.length, len, HLEN + nm.length, mtime, crc));
+	    if(prev != null)
+		dead += prev.hlen + prev.len;
+	    absent.remove(name);
+	    end = pos;
+	}
+    }
+
+    public OutputStream store(String name) throws IOException {
+	return(new ByteArrayOutputStream() {
+		private boolean closed = false;
+
+		public void close() throws IOException {
+		    if(!closed) {
+			closed = true;
+			append(name, buf, count, System.currentTimeMillis());
+			ckmixed();
+			if(mixed) {
+			    try(OutputStream fp = back.store(name)) {
+				fp.write(buf, 0, count);
+			    }
+			}
+		    }
+		}
+	    });
+    }
+
+    /* Checks the record, given its view if it has one, reading it
+     * directly otherwise. Called without holding the pack's monitor,
+     * since records are never overwritten in place. */
+    private ByteBuffer read(String name, Entry ent, ByteBuffer ret) throws IOException {
+	if(ret == null) {
+	    ret = ByteBuffer.allocate(ent.len);
+	    while(ret.hasRemaining()) {
+		if(fp.read(ret, ent.off + ret.position()) < 0)
+		    throw(new EOFException(name));
+	    }
+	    ret.flip();
+	}
+	if(crc(name.getBytes(StandardCharsets.UTF_8), ret) != ent.crc) {
+	    new Warning("map pack " + path + ": dropping corrupt record for " + name).issue();
+	    synchronized(this) {
+		if(index.get(name) == ent) {
+		    index.remove(name);
+		    dead += ent.hlen + ent.len;
+		}
+	    }
+	    return(null);
+	}
+	return(ret);
+    }
+
+    public InputStream fetch(String name) throws IOException {
+	ckmixed();
+	Entry ent;
+	ByteBuffer view = null;
+	synchronized(this) {
+	    ent = index.get(name);
+	    if(ent != null)
+		view = view(ent);
+	    else if(!mixed && absent.contains(name))
+		throw(new FileNotFoundException(name));
+	}
+	if(ent != null) {
+	    if(mixed) {
+		byte[] data = absorb(name, ent);
+		if(data != null)
+		    return(new ByteArrayInputStream(data));
+	    }
+	    ByteBuffer data = read(name, ent, view);
+	    if(data != null)
+		return(new BufferStream(data));
+	}
+	byte[] data;
+	try(InputStream fp = back.fetch(name)) {
+	    data = Utils.readall(fp);
+	} catch(FileNotFoundException e) {
+	    synchronized(this) {
+		if(!index.containsKey(name))
+		    absent.add(name);
+	    }
+	    throw(e);
+	}
+	synchronized(this) {
+	    if(!index.containsKey(name))
+		append(name, data, data.length, Math.max(back.mtime(name), 0));
+	}
+	return(new ByteArrayInputStream(data));
+    }
+
+    public String toString() {
+	return("PackCache(" + path + ", " + index.size() + " entries)");
+    }
+}
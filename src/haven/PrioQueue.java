@@ -27,48 +27,200 @@
 package haven;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
-public class PrioQueue<E extends Prioritized> extends LinkedList<E> {
-    public E peek() {
-	E rv = null;
-	int mp = 0;
-	for(E e : this) {
-	    int ep = e.priority();
-	    if((rv == null) || (ep > mp)) {
-		mp = ep;
-		rv = e;
-	    }
+/* An indexed binary heap, highest priority first and first-in
+ * first-out among equals. Elements are kept by identity, so that
+ * removing one, or moving it after its priority has changed, takes
+ * O(log n) rather than a scan.
+ *
+ * An element's priority is read when it is added and when it is
+ * passed to reprio() or boosted(). Elements whose priorities change
+ * on their own are only reordered by reheap(). Like the queue as a
+ * whole, reprio() must be called under the monitor guarding the
+ * queue, whereas boosted() may be called from anywhere, and takes
+ * effect on the next peek or poll. */
+public class PrioQueue<E extends Prioritized> extends AbstractQueue<E> {
+    private final Map<E, Node<E>> index = new IdentityHashMap<>();
+    private final Queue<E> boosted = new ConcurrentLinkedQueue<>();
+    @SuppressWarnings("unchecked")
+    private Node<E>[] heap = (Node<E>[])new Node<?>[16];
+    private int n = 0;
+    private long seq = 0;
+
+    private static class Node<E> {
+	final E e;
+	final long seq;
+	int prio, idx;
+
+	Node(E e, long seq, int prio) {
+	    this.e = e;
+	    this.seq = seq;
+	    this.prio = prio;
 	}
-	return(rv);
     }
-    
-    public E element() {
-	E rv;
-	if((rv = peek()) == null)
-	    throw(new NoSuchElementException());
-	return(rv);
+
+    private static boolean before(Node<?> a, Node<?> b) {
+	return((a.prio > b.prio) || ((a.prio == b.prio) && (a.seq < b.seq)));
     }
-    
-    public E poll() {
-	E rv = peek();
-	removeid(rv);
-	return(rv);
+
+    private void set(int i, Node<E> nd) {
+	heap[i] = nd;
+	nd.idx = i;
+    }
+
+    private void siftup(int i) {
+	Node<E> nd = heap[i];
+	while(i > 0) {
+	    int p = (i - 1) >> 1;
+	    if(!before(nd, heap[p]))
+		break;
+	    set(i, heap[p]);
+	    i = p;
+	}
+	set(i, nd);
     }
-    
-    public E remove() {
-	E rv;
-	if((rv = poll()) == null)
-	    throw(new NoSuchElementException());
+
+    private void siftdown(int i) {
+	Node<E> nd = heap[i];
+	while(true) {
+	    int c = (i << 1) + 1;
+	    if(c >= n)
+		break;
+	    if((c + 1 < n) && before(heap[c + 1], heap[c]))
+		c++;
+	    if(!before(heap[c], nd))
+		break;
+	    set(i, heap[c]);
+	    i = c;
+	}
+	set(i, nd);
+    }
+
+    private void removeat(int i) {
+	index.remove(heap[i].e);
+	Node<E> last = heap[--n];
+	heap[n] = null;
+	if(i < n) {
+	    set(i, last);
+	    siftdown(i);
+	    if(heap[i] == last)
+		siftup(i);
+	}
+    }
+
+    private void update(Node<E> nd) {
+	int p = nd.e.priority();
+	if(p == nd.prio)
+	    return;
+	int o = nd.prio;
+	nd.prio = p;
+	if(p > o)
+	    siftup(nd.idx);
+	else
+	    siftdown(nd.idx);
+    }
+
+    private void drain() {
+	E e;
+	while((e = boosted.poll()) != null) {
+	    Node<E> nd = index.get(e);
+	    if(nd != null)
+		update(nd);
+	}
+    }
+
+    public boolean offer(E e) {
+	Node<E> nd = index.get(e);
+	if(nd != null) {
+	    update(nd);
+	    return(true);
+	}
+	nd = new Node<>(e, seq++, e.priority());
+	if(n == heap.length)
+	    heap = Arrays.copyOf(heap, n * 2);
+	index.put(e, nd);
+	set(n, nd);
+	siftup(n++);
+	return(true);
+    }
+
+    public E peek() {
+	drain();
+	return((n == 0) ? null : heap[0].e);
+    }
+
+    public E poll() {
+	drain();
+	if(n == 0)
+	    return(null);
+	E rv = heap[0].e;
+	removeat(0);
 	return(rv);
     }
 
     public boolean removeid(E el) {
-	for(Iterator<E> i = iterator(); i.hasNext();) {
-	    if(i.next() == el) {
-		i.remove();
-		return(true);
-	    }
-	}
-	return(false);
+	Node<E> nd = index.get(el);
+	if(nd == null)
+	    return(false);
+	removeat(nd.idx);
+	return(true);
+    }
+
+    public boolean remove(Object o) {
+	Node<E> nd = index.get(o);
+	if(nd == null)
+	    return(false);
+	removeat(nd.idx);
+	return(true);
+    }
+
+    public boolean contains(Object o) {
+	return(index.containsKey(o));
+    }
+
+    public void reprio(E el) {
+	Node<E> nd = index.get(el);
+	if(nd != null)
+	    update(nd);
+    }
+
+    public void boosted(E el) {
+	boosted.add(el);
+    }
+
+    public void reheap() {
+	for(int i = 0; i < n; i++)
+	    heap[i].prio = heap[i].e.priority();
+	for(int i = (n >> 1) - 1; i >= 0; i--)
+	    siftdown(i);
+    }
+
+    public int size() {
+	return(n);
+    }
+
+    public void clear() {
+	Arrays.fill(heap, 0, n, null);
+	index.clear();
+	boosted.clear();
+	n = 0;
+    }
+
+    /* In heap order, not priority order. */
+    public Iterator<E> iterator() {
+	return(new Iterator<E>() {
+		int i = 0;
+
+		public boolean hasNext() {
+		    return(i < n);
+		}
+
+		public E next() {
+		    if(i >= n)
+			throw(new NoSuchElementException());
+		    return(heap[i++].e);
+		}
+	    });
     }
 }
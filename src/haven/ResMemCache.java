@@ -0,0 +1,133 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven;
+
+import java.util.*;
+
+/* In-memory cache of loaded resources for Resource.Pool, holding
+ * resources strongly up to a budget of their estimated sizes, instead
+ * of leaving all of them to soft references and the GC's discretion.
+ *
+ * Resources are evicted in LRU order, except that each hit since a
+ * resource was last considered for eviction buys it another pass
+ * through the queue, with the hit count halved, so that frequently
+ * used resources are kept over ones that were merely loaded recently.
+ * Evicted resources are still weakly referenced, so that resources
+ * still in use elsewhere are in effect pinned: they are found again,
+ * and returned to the cache, rather than loaded anew as duplicates. */
+public class ResMemCache {
+    public static final Config.Variable<Integer> budget = Config.Variable.propi("haven.resmem", 256);
+    public final long limit;
+    private final Map<String, Entry> live = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Resource> evicted = new CacheMap<>(CacheMap.RefType.WEAK);
+    private long size = 0;
+    private long hits = 0, revived = 0, misses = 0, evictions = 0;
+
+    private static class Entry {
+	final Resource res;
+	final long sz;
+	int hits = 0;
+
+	Entry(Resource res) {
+	    this.res = res;
+	    this.sz = res.memsize();
+	}
+    }
+
+    public ResMemCache(long limit) {
+	this.limit = limit;
+    }
+
+    public ResMemCache() {
+	this((long)budget.get() << 20);
+    }
+
+    public synchronized Resource get(String name) {
+	Entry e = live.get(name);
+	if(e != null) {
+	    hits++;
+	    e.hits++;
+	    return(e.res);
+	}
+	Resource res = evicted.remove(name);
+	if(res != null) {
+	    revived++;
+	    put(res);
+	    return(res);
+	}
+	misses++;
+	return(null);
+    }
+
+    public synchronized void put(Resource res) {
+	Entry e = new Entry(res);
+	Entry prev = live.put(res.name, e);
+	if(prev != null)
+	    size -= prev.sz;
+	evicted.remove(res.name);
+	size += e.sz;
+	trim();
+    }
+
+    private void trim() {
+	if(limit <= 0)
+	    return;
+	while((size > limit) && (live.size() > 1)) {
+	    Iterator<Entry> i = live.values().iterator();
+	    Entry e = i.next();
+	    i.remove();
+	    if(e.hits > 0) {
+		e.hits >>= 1;
+		live.put(e.res.name, e);
+		continue;
+	    }
+	    size -= e.sz;
+	    evicted.put(e.res.name, e.res);
+	    evictions++;
+	}
+    }
+
+    public synchronized int size() {
+	return(live.size() + evicted.size());
+    }
+
+    public synchronized Collection<Resource> values() {
+	Collection<Resource> ret = new ArrayList<>(evicted.values());
+	for(Entry e : live.values())
+	    ret.add(e.res);
+	return(ret);
+    }
+
+    public synchronized String stats() {
+	long lookups = hits + revived + misses;
+	return(String.format("%,d/%,d kB, %d (+%d) res, hit %.1f%% (%.1f%% revived), %d evicted",
+			     size >> 10, limit >> 10, live.size(), evicted.size(),
+			     (lookups == 0) ? 0.0 : (100.0 * (hits + revived) / lookups),
+			     (lookups == 0) ? 0.0 : (100.0 * revived / lookups),
+			     evictions));
+    }
+}
@@ -61,7 +61,8 @@ public class Resource implements Serializable {
     public ResSource source;
     public final transient Pool pool;
     protected Collection<Layer> layers = new LinkedList<Layer>();
-    private boolean used = false;
+    private boolean used = false, ready = false;
+    private long memsz = 0;
 
     public abstract static class Named implements Indir<Resource>, Serializable {
 	public final String name;
@@ -398,12 +399,7 @@ public class Resource implements Serializable {
 	}
 
 	public InputStream get(String name) throws IOException {
-	    return(Http.fetch(encodeuri(base.resolve(name + ".res")).toURL(), c -> {
-			/* Apparently, some versions of Java Web Start has
-			 * a bug in its internal cache where it refuses to
-			 * reload a URL even when it has changed. */
-			c.setUseCaches(false);
-		    }));
+	    return(Http.fetch(encodeuri(base.resolve(name + ".res"))));
 	}
 
 	public String toString() {
@@ -498,11 +494,19 @@ public class Resource implements Serializable {
     }
 
     public static class Pool {
-	public int nloaders = 2;
+	/* Resources are loaded in two stages, by fetchers getting their
+	 * bytes from the sources, and decoders parsing them. Fetchers
+	 * mostly wait on I/O, and so are many; decoders are bound by
+	 * CPU, and so are as many as there are cores to spare. Either
+	 * kind is started as its queue grows, up to these numbers, and
+	 * exits after being idle for a while. */
+	public int nloaders = 8;
+	public int ndecoders = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
 	private final Collection<Loader> loaders = new LinkedList<Loader>();
-	private final List<ResSource> sources = new LinkedList<ResSource>();
-	private final Map<String, Resource> cache = new CacheMap<String, Resource>();
+	private final List<ResSource> sources = new ArrayList<ResSource>();
+	private final ResMemCache cache = new ResMemCache();
 	private final PrioQueue<Queued> queue = new PrioQueue<Queued>();
+	private final PrioQueue<Queued> dqueue = new PrioQueue<Queued>();
 	private final Map<String, Queued> queued = new HashMap<String, Queued>();
 	private final Pool parent;
 
@@ -529,6 +533,9 @@ public class Resource implements Serializable {
 	    Resource res;
 	    LoadException error;
 	    boolean found = false;
+	    int nextsrc = 0;
+	    transient byte[] data;
+	    transient ResSource dsrc;
 
 	    Queued(String name, int ver, int prio) {
 		super(name, ver);
@@ -540,8 +547,11 @@ public class Resource implements Serializable {
 	    }
 
 	    public void boostprio(int prio) {
-		if(this.prio < prio)
+		if(this.prio < prio) {
 		    this.prio = prio;
+		    queue.boosted(this);
+		    dqueue.boosted(this);
+		}
 		Queued p = awaiting;
 		if(p != null)
 		    p.boostprio(prio);
@@ -570,7 +580,7 @@ public class Resource implements Serializable {
 		}
 		if(res != null) {
 		    synchronized(cache) {
-			cache.put(name, res);
+			cache.put(res);
 		    }
 		    synchronized(queue) {
 			queued.remove(name);
@@ -596,11 +606,30 @@ public class Resource implements Serializable {
 	    }
 	}
 
-	private void handle(Queued res) {
-	    for(ResSource src : sources) {
+	private void failed(Queued res, ResSource src, Throwable t) {
+	    if(!(t instanceof FileNotFoundException))
+		res.found = true;
+	    LoadException error;
+	    if(t instanceof LoadException)
+		error = (LoadException)t;
+	    else
+		error = new LoadException(String.format("Load error in resource %s(v%d), from %s", res.name, res.ver, src), t, null);
+	    error.src = src;
+	    if(res.error != null) {
+		error.prev = res.error;
+		error.addSuppressed(res.error);
+	    }
+	    res.error = error;
+	}
+
+	/* First stage: get the resource's bytes from the first source
+	 * that has them, and pass them on for decoding. */
+	private void fetch(Queued res) {
+	    for(int i = res.nextsrc; i < sources.size(); i++) {
+		ResSource src = sources.get(i);
 		try(InputStream in = src.get(res.name)) {
-		    Message msg = new StreamMessage(in);
-		    if(msg.eom()) {
+		    byte[] data = Utils.readall(in);
+		    if(data.length == 0) {
 			/* XXX? This should not be necessary, but for some reason
 			 * it seems that custom client resources find their way to
 			 * create empty cache files by the same name. I don't know
@@ -608,26 +637,44 @@ public class Resource implements Serializable {
 			throw(new FileNotFoundException("empty file"));
 		    }
 		    res.found = true;
-		    Resource ret = new Resource(this, res.name, res.ver);
-		    ret.source = src;
-		    ret.load(msg);
-		    res.res = ret;
-		    res.error = null;
-		    break;
+		    res.data = data;
+		    res.dsrc = src;
+		    res.nextsrc = i + 1;
+		    synchronized(dqueue) {
+			dqueue.add(res);
+			dqueue.notify();
+		    }
+		    ckld();
+		    return;
 		} catch(Throwable t) {
-		    if(!(t instanceof FileNotFoundException))
-			res.found = true;
-		    LoadException error;
-		    if(t instanceof LoadException)
-			error = (LoadException)t;
-		    else
-			error = new LoadException(String.format("Load error in resource %s(v%d), from %s", res.name, res.ver, src), t, null);
-		    error.src = src;
-		    if(res.error != null) {
-			error.prev = res.error;
-			error.addSuppressed(res.error);
+		    failed(res, src, t);
+		}
+	    }
+	    res.done();
+	}
+
+	/* Second stage: parse the fetched bytes. Should they not make
+	 * a valid resource, the remaining sources are tried. */
+	private void decode(Queued res) {
+	    byte[] data = res.data;
+	    ResSource src = res.dsrc;
+	    res.data = null;
+	    res.dsrc = null;
+	    try {
+		Resource ret = new Resource(this, res.name, res.ver);
+		ret.source = src;
+		ret.load(new MessageBuf(data));
+		res.res = ret;
+		res.error = null;
+	    } catch(Throwable t) {
+		failed(res, src, t);
+		if(res.nextsrc < sources.size()) {
+		    synchronized(queue) {
+			queue.add(res);
+			queue.notify();
 		    }
-		    res.error = error;
+		    ckld();
+		    return;
 		}
 	    }
 	    res.done();
@@ -664,6 +711,9 @@ public class Resource implements Serializable {
 			}
 			queued.remove(name);
 			queue.removeid(cq);
+			synchronized(dqueue) {
+			    dqueue.removeid(cq);
+			}
 		    }
 		    Queued nq = new Queued(name, ver, prio);
 		    if(parent == null) {
@@ -706,15 +756,34 @@ public class Resource implements Serializable {
 	    return(dynres(id.bits));
 	}
 
+	private int nloaders(boolean decode) {
+	    int ret = 0;
+	    for(Loader l : loaders) {
+		if(l.decode == decode)
+		    ret++;
+	    }
+	    return(ret);
+	}
+
 	private void ckld() {
-	    int qsz;
+	    int qsz, dqsz;
 	    synchronized(queue) {
 		qsz = queue.size();
 	    }
+	    synchronized(dqueue) {
+		dqsz = dqueue.size();
+	    }
 	    synchronized(loaders) {
-		while(loaders.size() < Math.min(nloaders, qsz)) {
-		    final Loader n = new Loader();
-		    Thread th = new HackThread(loadergroup, n, "Haven resource loader");
+		ckld(false, Math.min(nloaders, qsz));
+		ckld(true, Math.min(ndecoders, dqsz));
+	    }
+	}
+
+	private void ckld(boolean decode, int want) {
+	    synchronized(loaders) {
+		while(nloaders(decode) < want) {
+		    final Loader n = new Loader(decode);
+		    Thread th = new HackThread(loadergroup, n, decode ? "Haven resource decoder" : "Haven resource loader");
 		    th.setDaemon(true);
 		    th.start();
 		    while(!n.added) {
@@ -730,8 +799,13 @@ public class Resource implements Serializable {
 	}
 
 	public class Loader implements Runnable {
+	    public final boolean decode;
 	    private boolean added = false;
 
+	    private Loader(boolean decode) {
+		this.decode = decode;
+	    }
+
 	    public void run() {
 		synchronized(loaders) {
 		    loaders.add(this);
@@ -740,18 +814,22 @@ public class Resource implements Serializable {
 		}
 		boolean intd = false;
 		try {
+		    PrioQueue<Queued> q = decode ? dqueue : queue;
 		    while(true) {
 			Queued cur;
-			synchronized(queue) {
+			synchronized(q) {
 			    long start = System.currentTimeMillis(), now = start;
-			    while((cur = queue.poll()) == null) {
-				queue.wait(10000 - (now - start));
+			    while((cur = q.poll()) == null) {
+				q.wait(10000 - (now - start));
 				now = System.currentTimeMillis();
 				if(now - start >= 10000)
 				    return;
 			    }
 			}
-			handle(cur);
+			if(decode)
+			    decode(cur);
+			else
+			    fetch(cur);
 			cur = null;
 		    }
 		} catch(InterruptedException e) {
@@ -771,6 +849,9 @@ public class Resource implements Serializable {
 	    synchronized(queue) {
 		ret += queue.size();
 	    }
+	    synchronized(dqueue) {
+		ret += dqueue.size();
+	    }
 	    return(ret);
 	}
 
@@ -782,6 +863,12 @@ public class Resource implements Serializable {
 	    return(ret);
 	}
 
+	public String cachestats() {
+	    synchronized(cache) {
+		return(cache.stats());
+	    }
+	}
+
 	public Collection<Resource> cached() {
 	    Set<Resource> ret = new HashSet<Resource>();
 	    if(parent != null)
@@ -802,6 +889,21 @@ public class Resource implements Serializable {
 	    return(ret);
 	}
 
+	private final Map<String, Integer> useorder = new LinkedHashMap<>();
+	private void noteused(Resource res) {
+	    synchronized(useorder) {
+		useorder.putIfAbsent(res.name, res.ver);
+	    }
+	}
+
+	/* Names and versions of the resources loaded by this pool, in
+	 * the order they were first used. */
+	public Map<String, Integer> useorder() {
+	    synchronized(useorder) {
+		return(new LinkedHashMap<>(useorder));
+	    }
+	}
+
 	private final Set<Resource> loadwaited = new HashSet<Resource>();
 	public Collection<Resource> loadwaited() {
 	    Set<Resource> ret = new HashSet<Resource>();
@@ -1915,8 +2017,16 @@ public class Resource implements Serializable {
 	}
     }
 
+    private void markused() {
+	if(!used) {
+	    used = true;
+	    if(ready && (pool != null))
+		pool.noteused(this);
+	}
+    }
+
     public <L extends Layer> Collection<L> layers(final Class<L> cl) {
-	used = true;
+	markused();
 	return(new DefaultCollection<L>() {
 		public Iterator<L> iterator() {
 		    return(Utils.filter(layers.iterator(), cl));
@@ -1931,7 +2041,7 @@ public class Resource implements Serializable {
     }
 
     public <L extends Layer> L layer(Class<L> cl) {
-	used = true;
+	markused();
 	for(Layer l : layers) {
 	    if(cl.isInstance(l))
 		return(cl.cast(l));
@@ -1945,7 +2055,7 @@ public class Resource implements Serializable {
     }
 
     public <L> Collection<L> layers(Class<L> cl, Predicate<? super L> sel) {
-	used = true;
+	markused();
 	if(sel == null)
 	    sel = l -> true;
 	Predicate<? super L> dsel = sel;
@@ -1957,7 +2067,7 @@ public class Resource implements Serializable {
     }
 
     public <L> L layer(Class<L> cl, Predicate<? super L> sel) {
-	used = true;
+	markused();
 	for(Layer l : layers) {
 	    if(cl.isInstance(l)) {
 		L lc = cl.cast(l);
@@ -1975,7 +2085,7 @@ public class Resource implements Serializable {
     }
 
     public <I, L extends IDLayer<I>> L layer(Class<L> cl, I id) {
-	used = true;
+	markused();
 	for(Layer l : layers) {
 	    if(cl.isInstance(l)) {
 		L ll = cl.cast(l);
@@ -2017,14 +2127,29 @@ public class Resource implements Serializable {
 	    }
 	    Message buf = new LimitMessage(in, len);
 	    Layer l = lc.cons(this, buf);
-	    if(l != null)
+	    if(l != null) {
 		layers.add(l);
+		memsz += len;
+	    }
 	    buf.skip();
 	}
 	this.layers = layers;
-	for(Layer l : layers)
+	for(Layer l : layers) {
 	    l.init();
+	    if((l instanceof Image) && (((Image)l).img != null)) {
+		/* Decoded images are far larger than their PNG data. */
+		BufferedImage img = ((Image)l).img;
+		memsz += (long)img.getWidth() * img.getHeight() * 4;
+	    }
+	}
 	used = false;
+	ready = true;
+    }
+
+    /* Rough estimate of the heap held by this resource's layers, for
+     * the pool's cache budget. */
+    public long memsize() {
+	return(memsz);
     }
 
     private transient Named indir = null;
@@ -2066,26 +2191,36 @@ public class Resource implements Serializable {
 	return(name + "(v" + ver + ")");
     }
 
-    public static void loadlist(Pool pool, InputStream list, int prio) throws IOException {
-	BufferedReader in = new BufferedReader(new InputStreamReader(list, "us-ascii"));
-	String ln;
-	while((ln = in.readLine()) != null) {
-	    int pos = ln.indexOf(':');
-	    if(pos < 0)
-		continue;
-	    String nm = ln.substring(0, pos);
-	    int ver;
-	    try {
-		ver = Integer.parseInt(ln.substring(pos + 1));
-	    } catch(NumberFormatException e) {
-		continue;
+    /* Reads a list of resources as written by dumplist, in order. */
+    public static Map<String, Integer> readlist(InputStream list) throws IOException {
+	Map<String, Integer> ret = new LinkedHashMap<>();
+	try(BufferedReader in = new BufferedReader(new InputStreamReader(list, "us-ascii"))) {
+	    String ln;
+	    while((ln = in.readLine()) != null) {
+		int pos = ln.indexOf(':');
+		if(pos < 0)
+		    continue;
+		try {
+		    ret.put(ln.substring(0, pos), Integer.parseInt(ln.substring(pos + 1)));
+		} catch(NumberFormatException e) {
+		    continue;
+		}
 	    }
+	}
+	return(ret);
+    }
+
+    public static void loadlist(Pool pool, Map<String, Integer> list, int prio) {
+	for(Map.Entry<String, Integer> ent : list.entrySet()) {
 	    try {
-		pool.load(nm, ver, prio);
+		pool.load(ent.getKey(), ent.getValue(), prio);
 	    } catch(RuntimeException e) {
 	    }
 	}
-	in.close();
+    }
+
+    public static void loadlist(Pool pool, InputStream list, int prio) throws IOException {
+	loadlist(pool, readlist(list), prio);
     }
 
     public static void dumplist(Collection<Resource> list, Writer dest) {
@@ -35,6 +35,7 @@ import java.lang.ref.*;
 
 public class Session implements Resource.Resolver {
     public static final int PVER = 29;
+    public static final Config.Variable<java.nio.file.Path> dumppath = Config.Variable.propp("haven.conndump", "");
 
     public static final int MSG_SESS = 0;
     public static final int MSG_REL = 1;
@@ -269,11 +270,36 @@ public class Session implements Resource.Resolver {
 	this.user = user;
 	this.glob = new Glob(this);
 	conn.add(conncb);
+	if(dumppath.get() != null)
+	    conn.add(dumper(dumppath.get()));
 	conn.connect((user.alias != null) ? user.alias : user.name, encrypt, cookie, args);
 	sesskey = SignKey.JWK.ES256.generate();
 	queuemsg((PMessage)new PMessage(RMessage.RMSG_SESSKEY).addtto(SignKey.JWK.format(sesskey, true)));
     }
 
+    private Session(Connection conn, User user) {
+	this.conn = conn;
+	this.user = user;
+	this.glob = new Glob(this);
+	conn.add(conncb);
+    }
+
+    private static Connection.Callback.Dumper dumper(java.nio.file.Path path) {
+	try {
+	    return(new Connection.Callback.Dumper(new BufferedWriter(new OutputStreamWriter(java.nio.file.Files.newOutputStream(path), Utils.utf8))));
+	} catch(IOException e) {
+	    throw(new RuntimeException(e));
+	}
+    }
+
+    /* Create a session without any server attached, driven by a
+     * trace previously recorded with haven.conndump. */
+    public static Session replay(java.nio.file.Path trace, double speed) throws IOException {
+	Session sess = new Session(new Connection(), new User("replay"));
+	sess.conn.replay(new InputStreamReader(java.nio.file.Files.newInputStream(trace), Utils.utf8), speed);
+	return(sess);
+    }
+
     public void close() {
 	conn.close();
     }
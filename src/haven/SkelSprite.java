@@ -282,6 +282,11 @@ public class SkelSprite extends Sprite implements Sprite.CUpd, EquipTarget, Spri
 	this.oldpose = null;
     }
 
+    /* Whether the pose is still changing from tick to tick. */
+    public boolean animating() {
+	return(!stat || (ipold > 0));
+    }
+
     public boolean tick(double ddt) {
 	float dt = (float)ddt;
 	if(!stat || (ipold > 0)) {
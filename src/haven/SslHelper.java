@@ -68,7 +68,14 @@ public class SslHelper {
 		    kmf.init(creds, pw);
 		    kms = kmf.getKeyManagers();
 		}
-		ctx.init(kms, tmf.getTrustManagers(), new SecureRandom());
+		TrustManager[] tms = tmf.getTrustManagers();
+		if(ver != null) {
+		    for(int i = 0; i < tms.length; i++) {
+			if(tms[i] instanceof X509TrustManager)
+			    tms[i] = nameless((X509TrustManager)tms[i]);
+		    }
+		}
+		ctx.init(kms, tms, new SecureRandom());
 	    } catch(NoSuchAlgorithmException e) {
 		throw(new Error(e));
 	    } catch(KeyStoreException e) {
@@ -84,6 +91,36 @@ public class SslHelper {
 	return(ctx);
     }
 
+    /* Checks the chain against the trusted certificates only, for
+     * clients such as java.net.http.HttpClient, which have no
+     * HostnameVerifier, and would otherwise have the trust manager
+     * check the host name. */
+    private static X509TrustManager nameless(X509TrustManager back) {
+	return(new X509ExtendedTrustManager() {
+		public void checkClientTrusted(X509Certificate[] chain, String auth) throws CertificateException {
+		    back.checkClientTrusted(chain, auth);
+		}
+		public void checkServerTrusted(X509Certificate[] chain, String auth) throws CertificateException {
+		    back.checkServerTrusted(chain, auth);
+		}
+		public void checkClientTrusted(X509Certificate[] chain, String auth, Socket sk) throws CertificateException {
+		    back.checkClientTrusted(chain, auth);
+		}
+		public void checkServerTrusted(X509Certificate[] chain, String auth, Socket sk) throws CertificateException {
+		    back.checkServerTrusted(chain, auth);
+		}
+		public void checkClientTrusted(X509Certificate[] chain, String auth, SSLEngine eng) throws CertificateException {
+		    back.checkClientTrusted(chain, auth);
+		}
+		public void checkServerTrusted(X509Certificate[] chain, String auth, SSLEngine eng) throws CertificateException {
+		    back.checkServerTrusted(chain, auth);
+		}
+		public X509Certificate[] getAcceptedIssuers() {
+		    return(back.getAcceptedIssuers());
+		}
+	    });
+    }
+
     private synchronized SSLSocketFactory sfac() {
 	if(sfac == null)
 	    sfac = ctx().getSocketFactory();
@@ -159,7 +196,12 @@ public class SslHelper {
 	return(connect(Utils.url(url)));
     }
 
-    public void ignoreName() {
+    public SSLContext context() {
+	return(ctx());
+    }
+
+    public synchronized void ignoreName() {
+	clear();
 	ver = new HostnameVerifier() {
 		public boolean verify(String hostname, SSLSession sess) {
 		    return(true);
@@ -205,17 +205,14 @@ public class TileHighlight {
     public static BufferedImage olrender(MapFile.DataGrid grid) {
 	TileHighlightOverlay ol = new TileHighlightOverlay(grid);
 	WritableRaster buf = PUtils.imgraster(cmaps);
+	byte[] px = PUtils.rasterbytes(buf);
 	Color col = ol.color();
 	if(col != null) {
 	    Coord c = new Coord();
 	    for (c.y = 0; c.y < cmaps.y; c.y++) {
 		for (c.x = 0; c.x < cmaps.x; c.x++) {
-		    if(ol.get(c)) {
-			buf.setSample(c.x, c.y, 0, ((col.getRed() * col.getAlpha()) + (buf.getSample(c.x, c.y, 1) * (255 - col.getAlpha()))) / 255);
-			buf.setSample(c.x, c.y, 1, ((col.getGreen() * col.getAlpha()) + (buf.getSample(c.x, c.y, 1) * (255 - col.getAlpha()))) / 255);
-			buf.setSample(c.x, c.y, 2, ((col.getBlue() * col.getAlpha()) + (buf.getSample(c.x, c.y, 2) * (255 - col.getAlpha()))) / 255);
-			buf.setSample(c.x, c.y, 3, Math.max(buf.getSample(c.x, c.y, 3), col.getAlpha()));
-		    }
+		    if(ol.get(c))
+			PUtils.olblend(px, c.x + (c.y * cmaps.x), col);
 		}
 	    }
 	}
@@ -39,15 +39,37 @@ public class ZMessage extends Message implements Closeable, Flushable, Serializa
 	this.bk = from;
     }
 
+    /* Map data comes as dozens of z-blobs in a row, so rather than
+     * setting up native zlib state for each, a finished inflater is
+     * kept per thread for the next one. */
+    private static final ThreadLocal<Inflater> spare = new ThreadLocal<>();
+
+    private static Inflater inflater() {
+	Inflater ret = spare.get();
+	if(ret == null)
+	    return(new Inflater());
+	spare.set(null);
+	return(ret);
+    }
+
+    private static void release(Inflater zi) {
+	if(spare.get() == null) {
+	    zi.reset();
+	    spare.set(zi);
+	} else {
+	    zi.end();
+	}
+    }
+
     public boolean underflow(int hint) {
 	if(zi == null) {
 	    if(eof)
 		return(false);
-	    zi = new Inflater();
+	    zi = inflater();
 	}
 	boolean ret = false;
 	if(rbuf.length - rt < 1) {
-	    byte[] n = new byte[Math.max(1024, rt - rh) + rt - rh];
+	    byte[] n = new byte[Math.max(Math.max(1024, hint), rt - rh) + rt - rh];
 	    System.arraycopy(rbuf, rh, n, 0, rt - rh);
 	    rt -= rh;
 	    rh = 0;
@@ -58,7 +80,7 @@ public class ZMessage extends Message implements Closeable, Flushable, Serializa
 		int rv = zi.inflate(rbuf, rt, rbuf.length - rt);
 		if(rv == 0) {
 		    if(zi.finished()) {
-			zi.end();
+			release(zi);
 			zi = null;
 			eof = true;
 			return(ret);
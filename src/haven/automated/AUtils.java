@@ -289,16 +289,14 @@ public class AUtils {
 
     public static ArrayList<Gob> getGobsInSelectionStartingWith(String name, Coord start, Coord end, GameUI gui) {
         ArrayList<Gob> selected = new ArrayList<>();
-        synchronized (gui.map.glob.oc) {
-            for (Gob gob : gui.map.glob.oc) {
-                if (gob.rc.x > start.x && gob.rc.x < end.x && gob.rc.y > start.y && gob.rc.y < end.y) {
-                    try {
-                        Resource res = gob.getres();
-                        if (res != null && res.name.startsWith(name)) {
-                            selected.add(gob);
-                        }
-                    } catch (Loading l) {
+        for (Gob gob : gui.map.glob.oc.inArea(Area.corni(start, end))) {
+            if (gob.rc.x > start.x && gob.rc.x < end.x && gob.rc.y > start.y && gob.rc.y < end.y) {
+                try {
+                    Resource res = gob.getres();
+                    if (res != null && res.name.startsWith(name)) {
+                        selected.add(gob);
                     }
+                } catch (Loading l) {
                 }
             }
         }
@@ -310,21 +308,19 @@ public class AUtils {
         double minDist = Double.MAX_VALUE;
         Coord2d player = gui.map.player().rc;
 
-        synchronized (gui.map.glob.oc) {
-            for (Gob gob : gui.map.glob.oc) {
-                if (gob.rc.x > start.x && gob.rc.x < end.x && gob.rc.y > start.y && gob.rc.y < end.y) {
-                    try {
-                        Resource res = gob.getres();
-                        if (res != null && res.name.equals(name)) {
-                            int stage = AUtils.getDrawState(gob);
-                            double dist = player.dist(gob.rc);
-                            if(dist < minDist && (stage >= stageP)) {
-                                minDist = dist;
-                                closestGob = gob;
-                            }
+        for (Gob gob : gui.map.glob.oc.inArea(Area.corni(start, end))) {
+            if (gob.rc.x > start.x && gob.rc.x < end.x && gob.rc.y > start.y && gob.rc.y < end.y) {
+                try {
+                    Resource res = gob.getres();
+                    if (res != null && res.name.equals(name)) {
+                        int stage = AUtils.getDrawState(gob);
+                        double dist = player.dist(gob.rc);
+                        if(dist < minDist && (stage >= stageP)) {
+                            minDist = dist;
+                            closestGob = gob;
                         }
-                    } catch (Loading l) {
                     }
+                } catch (Loading l) {
                 }
             }
         }
@@ -412,14 +408,14 @@ public class AUtils {
             int halfGridSize = gridSize / 2;
             for (int i = 0; i < gridSize; i++) {
                 for (int j = 0; j < gridSize; j++) {
-                    wholeGridHeight += grid.z[i * gridSize + j];
+                    wholeGridHeight += grid.getz(i * gridSize + j);
                     int quarterIndex;
                     if(i < halfGridSize) {
                         quarterIndex = (j < halfGridSize) ? 0 : 1;
                     } else {
                         quarterIndex = (j < halfGridSize) ? 2 : 3;
                     }
-                    quarterHeights[quarterIndex] += grid.z[i * gridSize + j];
+                    quarterHeights[quarterIndex] += grid.getz(i * gridSize + j);
                 }
             }
             String[] quarterNames = {"N-W", "N-E", "S-W", "S-E"};
@@ -14,20 +14,17 @@ public class HarvestNearestDreamcatcher implements Runnable {
 
     @Override
     public void run() {
-        Gob dreca = null;
-        synchronized (gui.map.glob.oc) {
-            for (Gob gob : gui.map.glob.oc) {
-                try {
-                    Resource res = gob.getres();
-                    if (res != null && res.name.startsWith("gfx/terobjs/dreca")) {
-                        Coord2d plc = gui.map.player().rc;
-                        if ((dreca == null || gob.rc.dist(plc) < dreca.rc.dist(plc)))
-                            dreca = gob;
-                    }
-                } catch (Loading l) {
-                }
+        Gob player = gui.map.player();
+        if (player == null)
+            return;
+        Gob dreca = gui.map.glob.oc.nearest(gob -> {
+            try {
+                Resource res = gob.getres();
+                return res != null && res.name.startsWith("gfx/terobjs/dreca");
+            } catch (Loading l) {
+                return false;
             }
-        }
+        }, player.rc);
 
         if (dreca == null)
             return;
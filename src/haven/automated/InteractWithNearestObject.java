@@ -66,7 +66,7 @@ public class InteractWithNearestObject implements Runnable {
         if (player == null)
             return; // player is null, possibly taking a road, don't bother trying to do any of the below
         Coord2d plc = player.rc;
-        for (Gob gob : Utils.getAllGobs(gui)) {
+        for (Gob gob : gui.map.glob.oc.within(plc, maxDistance)) {
             double distFromPlayer = gob.rc.dist(plc);
             if (gob.id == gui.map.plgob || distFromPlayer >= maxDistance)
                 continue;
@@ -95,7 +95,7 @@ public class InteractWithNearestObject implements Runnable {
                 boolean isNonVisitorGate = isSmallGate || isReinforcedGate;
                 if ((isNonVisitorGate && Utils.getprefb("clickNearestObject_NonVisitorGates", true))
                 || ((res.name.startsWith("gfx/terobjs/herbs") || otherPickableObjects.contains(res.basename())) && Utils.getprefb("clickNearestObject_Forageables", true))
-                || (Arrays.stream(Config.critterResPaths).anyMatch(res.name::matches) || res.name.matches(".*(rabbit|bunny)$")) && Utils.getprefb("clickNearestObject_Critters", true)
+                || ((GobTraits.of(res) & (GobTraits.CRITTER | GobTraits.RABBIT)) != 0) && Utils.getprefb("clickNearestObject_Critters", true)
                 || (caves.contains(res.name) && Utils.getprefb("clickNearestObject_Caves", false))
                 || (mines.contains(res.name) && Utils.getprefb("clickNearestObject_MineholesAndLadders", false))) {
                     if (distFromPlayer < maxDistance && (theObject == null || distFromPlayer < theObject.rc.dist(plc))) {
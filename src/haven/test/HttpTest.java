@@ -0,0 +1,105 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven.test;
+
+import haven.*;
+import java.io.*;
+import java.net.*;
+import com.sun.net.httpserver.HttpServer;
+
+/* Runs Http.fetch against a local stand-in server: a missing file must
+ * come out as FileNotFoundException, and neither that nor closing a
+ * body before reading it all may keep a request slot taken. */
+public class HttpTest {
+    private static final byte[] body = new byte[1 << 20];
+
+    private static HttpServer server() throws IOException {
+	HttpServer srv = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+	srv.createContext("/res", ex -> {
+		ex.getRequestBody().close();
+		if(ex.getRequestURI().getPath().endsWith("/missing.res")) {
+		    ex.sendResponseHeaders(404, -1);
+		} else {
+		    ex.sendResponseHeaders(200, body.length);
+		    try(OutputStream out = ex.getResponseBody()) {
+			out.write(body);
+		    } catch(IOException e) {
+			/* The client closing early cuts this short. */
+		    }
+		}
+		ex.close();
+	    });
+	srv.start();
+	return(srv);
+    }
+
+    private static void run(URI base) throws IOException {
+	int n = Http.maxreqs.get() * 2 + 1;
+	for(int i = 0; i < n; i++) {
+	    try {
+		Http.fetch(base.resolve("res/missing.res")).close();
+		throw(new AssertionError("missing resource was fetched"));
+	    } catch(FileNotFoundException e) {
+	    }
+	}
+	for(int i = 0; i < n; i++) {
+	    try(InputStream fp = Http.fetch(base.resolve("res/found.res"))) {
+		if(fp.read() < 0)
+		    throw(new AssertionError("empty body"));
+	    }
+	}
+	try(InputStream fp = Http.fetch(base.resolve("res/found.res"))) {
+	    if(Utils.readall(fp).length != body.length)
+		throw(new AssertionError("short body"));
+	}
+    }
+
+    public static void main(String[] args) throws Exception {
+	HttpServer srv = server();
+	try {
+	    URI base = URI.create("http://127.0.0.1:" + srv.getAddress().getPort() + "/");
+	    Throwable[] err = {null};
+	    Thread th = new Thread(() -> {
+		    try {
+			run(base);
+		    } catch(Throwable t) {
+			err[0] = t;
+		    }
+		}, "HTTP test");
+	    th.setDaemon(true);
+	    th.start();
+	    th.join(30000);
+	    if(th.isAlive())
+		throw(new AssertionError("requests stalled; request slots were not released"));
+	    if(err[0] != null)
+		throw(new AssertionError("HTTP test failed", err[0]));
+	    System.out.println("HTTP test passed");
+	} finally {
+	    srv.stop(0);
+	}
+    }
+}